@@ -0,0 +1,81 @@
+package org.example.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * 单个接口的延迟记录：保存每次请求的耗时（微秒，失败的请求也计入），汇总时排序计算分位数
+ */
+public class LatencyRecorder {
+
+    private final String name;
+    private long[] samples = new long[1024];
+    private int count;
+    private long errors;
+
+    public LatencyRecorder(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized void record(long nanos, boolean success) {
+        if (!success) {
+            errors++;
+        }
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, count * 2);
+        }
+        samples[count++] = nanos / 1000;
+    }
+
+    public synchronized int count() {
+        return count;
+    }
+
+    public synchronized Summary summarize(double elapsedSeconds) {
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        return new Summary(name, count, errors, count / elapsedSeconds,
+                percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 0.999),
+                sorted.length == 0 ? 0 : sorted[sorted.length - 1]);
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    /**
+     * 汇总结果，延迟单位为微秒
+     */
+    public static class Summary {
+        final String name;
+        final long count;
+        final long errors;
+        final double throughput;
+        final long p50;
+        final long p99;
+        final long p999;
+        final long max;
+
+        Summary(String name, long count, long errors, double throughput, long p50, long p99, long p999, long max) {
+            this.name = name;
+            this.count = count;
+            this.errors = errors;
+            this.throughput = throughput;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+
+        double errorRate() {
+            return count == 0 ? 0 : errors * 100.0 / count;
+        }
+    }
+}
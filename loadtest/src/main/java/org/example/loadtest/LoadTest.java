@@ -0,0 +1,169 @@
+package org.example.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 端到端压测：按设定速率逐步增加模拟玩家，持续一段时间后输出各接口的延迟分位数、错误率和吞吐量，
+ * 以及同时进行中的HTTP请求数（并发度）
+ *
+ * 参数（均可省略）：
+ *   -base      服务地址，默认 http://localhost:8080
+ *   -users     玩家数，默认 50
+ *   -ramp      全部玩家上线所用秒数，默认 30
+ *   -duration  全部上线后持续的秒数，默认 120
+ *   -fps       客户端帧率（移动时每帧上报一次位置），默认 60
+ *   -threads   驱动玩家的线程数，默认 CPU核数*2
+ */
+public class LoadTest {
+
+    private final URI base;
+    private final HttpClient http;
+    private final Map<String, LatencyRecorder> recorders = new ConcurrentHashMap<>();
+    private final List<SimulatedPlayer> players = new CopyOnWriteArrayList<>();
+    final AtomicLong skippedFrames = new AtomicLong();
+    final AtomicLong propEvents = new AtomicLong();
+    final AtomicLong socketErrors = new AtomicLong();
+    // 已发出、尚未收到响应的HTTP请求数，及统计区间内和整个压测的峰值
+    private final AtomicInteger inFlightRequests = new AtomicInteger();
+    private final AtomicInteger intervalPeakInFlight = new AtomicInteger();
+    private int peakInFlight;
+
+    LoadTest(URI base) {
+        this.base = base;
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        URI base = URI.create(options.getOrDefault("base", "http://localhost:8080"));
+        int users = Integer.parseInt(options.getOrDefault("users", "50"));
+        int rampSeconds = Integer.parseInt(options.getOrDefault("ramp", "30"));
+        int durationSeconds = Integer.parseInt(options.getOrDefault("duration", "120"));
+        int fps = Integer.parseInt(options.getOrDefault("fps", "60"));
+        int threads = Integer.parseInt(options.getOrDefault("threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors() * 2)));
+
+        System.out.printf("压测 %s：%d个玩家，%d秒内上线，持续%d秒，%dfps%n", base, users, rampSeconds, durationSeconds, fps);
+        new LoadTest(base).run(users, rampSeconds, durationSeconds, fps, threads);
+    }
+
+    private void run(int users, int rampSeconds, int durationSeconds, int fps, int threads) throws InterruptedException {
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(threads);
+        ExecutorService starter = Executors.newFixedThreadPool(Math.min(users, 16));
+        // 游戏时长覆盖整个压测，避免中途到期停止生成道具
+        int gameMinutes = (rampSeconds + durationSeconds) / 60 + 2;
+        String prefix = "lt" + Long.toString(System.currentTimeMillis(), 36) + "_";
+        AtomicInteger started = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+
+        long begin = System.nanoTime();
+        for (int i = 0; i < users; i++) {
+            SimulatedPlayer player = new SimulatedPlayer(this, prefix + i, http, scheduler);
+            long delayMillis = users <= 1 ? 0 : (long) i * rampSeconds * 1000 / (users - 1);
+            scheduler.schedule(() -> starter.execute(() -> {
+                if (player.start(gameMinutes, fps)) {
+                    players.add(player);
+                    started.incrementAndGet();
+                } else {
+                    failed.incrementAndGet();
+                }
+            }), delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        long totalSeconds = rampSeconds + durationSeconds;
+        long previousRequests = 0;
+        for (long second = 10; second <= totalSeconds; second += 10) {
+            TimeUnit.SECONDS.sleep(10);
+            long requests = totalRequests();
+            int intervalPeak = intervalPeakInFlight.getAndSet(inFlightRequests.get());
+            peakInFlight = Math.max(peakInFlight, intervalPeak);
+            System.out.printf("[%3ds] 在线玩家 %d（登录失败 %d），最近10秒 %.0f req/s，并发请求峰值 %d，跳过帧 %d，道具事件 %d%n",
+                    second, started.get(), failed.get(), (requests - previousRequests) / 10.0,
+                    intervalPeak, skippedFrames.get(), propEvents.get());
+            previousRequests = requests;
+        }
+        TimeUnit.SECONDS.sleep(totalSeconds % 10);
+
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+        peakInFlight = Math.max(peakInFlight, intervalPeakInFlight.get());
+        for (SimulatedPlayer player : players) {
+            player.stop();
+        }
+        scheduler.shutdownNow();
+        starter.shutdownNow();
+        report(elapsed, started.get(), failed.get());
+    }
+
+    private void report(double elapsedSeconds, int started, int failed) {
+        System.out.println();
+        System.out.printf("在线玩家 %d，登录失败 %d，耗时 %.1f秒，跳过帧 %d，WebSocket错误 %d%n",
+                started, failed, elapsedSeconds, skippedFrames.get(), socketErrors.get());
+        System.out.printf("并发请求峰值 %d%n", peakInFlight);
+        System.out.printf("%-28s %9s %8s %9s %9s %9s %9s %9s%n",
+                "接口", "请求数", "错误率", "req/s", "p50(ms)", "p99(ms)", "p999(ms)", "max(ms)");
+        List<LatencyRecorder> sorted = new ArrayList<>(recorders.values());
+        sorted.sort((a, b) -> a.getName().compareTo(b.getName()));
+        for (LatencyRecorder recorder : sorted) {
+            LatencyRecorder.Summary s = recorder.summarize(elapsedSeconds);
+            System.out.printf("%-28s %9d %7.2f%% %9.1f %9.2f %9.2f %9.2f %9.2f%n",
+                    s.name, s.count, s.errorRate(), s.throughput,
+                    s.p50 / 1000.0, s.p99 / 1000.0, s.p999 / 1000.0, s.max / 1000.0);
+        }
+    }
+
+    private long totalRequests() {
+        long total = 0;
+        for (LatencyRecorder recorder : recorders.values()) {
+            total += recorder.count();
+        }
+        return total;
+    }
+
+    void requestStarted() {
+        intervalPeakInFlight.accumulateAndGet(inFlightRequests.incrementAndGet(), Math::max);
+    }
+
+    void requestFinished() {
+        inFlightRequests.decrementAndGet();
+    }
+
+    LatencyRecorder recorder(String name) {
+        return recorders.computeIfAbsent(name, LatencyRecorder::new);
+    }
+
+    URI uri(String path) {
+        return base.resolve(path);
+    }
+
+    URI wsUri(String path) {
+        return URI.create(base.toString().replaceFirst("^http", "ws")).resolve(path);
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("-")) {
+                throw new IllegalArgumentException("无法识别的参数: " + args[i]);
+            }
+            options.put(args[i].substring(1), args[i + 1]);
+        }
+        return options;
+    }
+}
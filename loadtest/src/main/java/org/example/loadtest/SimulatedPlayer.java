@@ -0,0 +1,263 @@
+package org.example.loadtest;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 模拟一个玩家：注册登录、重置游戏，然后按浏览器帧率上报移动、每秒查询剩余时间，
+ * 保持道具WebSocket连接，收到道具后过一段时间发送DELETE_PROP模拟拾取
+ */
+public class SimulatedPlayer {
+
+    // 与前端一致：每帧移动2个单位，场景边界±500
+    private static final double MOVE_SPEED = 2;
+    private static final double BOUND = 490;
+    // 浏览器对同一主机最多6个并发HTTP/1.1连接，超出时本帧不再上报
+    private static final int MAX_IN_FLIGHT = 6;
+
+    private static final Pattern TYPE = Pattern.compile("\"type\":\"(\\w+)\"");
+    private static final Pattern PROP_ID = Pattern.compile("\"prop\":\\{\"id\":(\\d+)");
+    private static final Pattern SNAPSHOT_ID = Pattern.compile("\\{\"id\":(\\d+)");
+    private static final Pattern DELETED_ID = Pattern.compile("\"id\":(\\d+)");
+
+    private final LoadTest test;
+    private final String username;
+    private final HttpClient http;
+    private final ScheduledExecutorService scheduler;
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+    // 已发送DELETE_PROP、等待服务器删除事件的道具及发送时间
+    private final Map<Long, Long> pendingPickups = new ConcurrentHashMap<>();
+
+    private String token;
+    private WebSocket propSocket;
+    private ScheduledFuture<?> moveTask;
+    private ScheduledFuture<?> timeTask;
+
+    // 移动状态只由移动任务读写
+    private double x;
+    private double z;
+    private double heading;
+    private long phaseEndsAt;
+    private boolean moving;
+
+    SimulatedPlayer(LoadTest test, String username, HttpClient http, ScheduledExecutorService scheduler) {
+        this.test = test;
+        this.username = username;
+        this.http = http;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * 注册、登录并开始游戏；失败时返回false，该玩家不再参与后续压测
+     */
+    boolean start(int gameMinutes, int fps) {
+        String form = "username=" + username + "&password=loadtest";
+        HttpRequest register = HttpRequest.newBuilder(test.uri("/register"))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form)).build();
+        if (send(register, test.recorder("POST /register")) == null) {
+            return false;
+        }
+
+        HttpRequest login = HttpRequest.newBuilder(test.uri("/login"))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form)).build();
+        HttpResponse<String> response = send(login, test.recorder("POST /login"));
+        String authorization = response == null ? null : response.headers().firstValue("Authorization").orElse(null);
+        if (authorization == null) {
+            return false;
+        }
+        token = authorization.substring("Bearer ".length());
+
+        HttpRequest reset = authorized("/api/game/reset?gameMinutes=" + gameMinutes)
+                .POST(HttpRequest.BodyPublishers.noBody()).build();
+        if (send(reset, test.recorder("POST /api/game/reset")) == null) {
+            return false;
+        }
+
+        connectPropSocket();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        heading = random.nextDouble(Math.PI * 2);
+        long frameMicros = 1_000_000L / fps;
+        moveTask = scheduler.scheduleAtFixedRate(this::frame, random.nextLong(frameMicros), frameMicros, TimeUnit.MICROSECONDS);
+        timeTask = scheduler.scheduleAtFixedRate(this::pollTime, random.nextLong(1000), 1000, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    void stop() {
+        if (moveTask != null) {
+            moveTask.cancel(false);
+        }
+        if (timeTask != null) {
+            timeTask.cancel(false);
+        }
+        if (propSocket != null) {
+            propSocket.sendClose(WebSocket.NORMAL_CLOSURE, "done");
+        }
+    }
+
+    // 一帧：移动若干秒、停顿若干秒交替，移动时每帧上报一次位置
+    private void frame() {
+        long now = System.currentTimeMillis();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (now >= phaseEndsAt) {
+            moving = !moving;
+            phaseEndsAt = now + (moving ? 2000 + random.nextInt(6000) : 1000 + random.nextInt(2000));
+            if (moving) {
+                heading += random.nextDouble(-Math.PI / 2, Math.PI / 2);
+            }
+        }
+        if (!moving) {
+            return;
+        }
+        x += Math.cos(heading) * MOVE_SPEED;
+        z += Math.sin(heading) * MOVE_SPEED;
+        if (Math.abs(x) > BOUND || Math.abs(z) > BOUND) {
+            // 碰到边界掉头
+            x = Math.max(-BOUND, Math.min(BOUND, x));
+            z = Math.max(-BOUND, Math.min(BOUND, z));
+            heading += Math.PI;
+        }
+
+        if (!inFlight.tryAcquire()) {
+            test.skippedFrames.incrementAndGet();
+            return;
+        }
+        String body = String.format("{\"position\":{\"x\":%.3f,\"y\":5,\"z\":%.3f},\"color\":\"#FF0000\",\"size\":10,"
+                + "\"renderOrder\":0,\"cameraPosition\":{\"x\":%.3f,\"y\":35,\"z\":%.3f}}", x, z, x, z + 50);
+        HttpRequest save = authorized("/api/cube/save")
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body)).build();
+        sendAsync(save, test.recorder("POST /api/cube/save")).whenComplete((response, error) -> inFlight.release());
+    }
+
+    private void pollTime() {
+        sendAsync(authorized("/api/game/time").GET().build(), test.recorder("GET /api/game/time"));
+    }
+
+    private void connectPropSocket() {
+        LatencyRecorder recorder = test.recorder("WS /ws/propcubes connect");
+        long start = System.nanoTime();
+        try {
+            propSocket = http.newWebSocketBuilder()
+                    .buildAsync(test.wsUri("/ws/propcubes?token=" + token), new PropListener())
+                    .get(10, TimeUnit.SECONDS);
+            recorder.record(System.nanoTime() - start, true);
+            propSocket.sendText("{\"type\":\"RESUME\",\"epoch\":0,\"lastSeq\":0}", true);
+        } catch (Exception e) {
+            recorder.record(System.nanoTime() - start, false);
+        }
+    }
+
+    // 收到道具后过2-10秒"走到"道具处拾取
+    private void schedulePickup(long propId) {
+        scheduler.schedule(() -> {
+            WebSocket socket = propSocket;
+            if (socket == null || socket.isOutputClosed()) {
+                return;
+            }
+            pendingPickups.put(propId, System.nanoTime());
+            socket.sendText("{\"type\":\"DELETE_PROP\",\"id\":" + propId + "}", true);
+        }, 2000 + ThreadLocalRandom.current().nextInt(8000), TimeUnit.MILLISECONDS);
+    }
+
+    private void onPropMessage(String message) {
+        Matcher type = TYPE.matcher(message);
+        if (!type.find()) {
+            return;
+        }
+        switch (type.group(1)) {
+            case "PROP_ADDED": {
+                test.propEvents.incrementAndGet();
+                Matcher id = PROP_ID.matcher(message);
+                if (id.find()) {
+                    schedulePickup(Long.parseLong(id.group(1)));
+                }
+                break;
+            }
+            case "SNAPSHOT": {
+                int props = message.indexOf("\"props\":");
+                Matcher ids = SNAPSHOT_ID.matcher(message);
+                if (props >= 0 && ids.find(props)) {
+                    do {
+                        schedulePickup(Long.parseLong(ids.group(1)));
+                    } while (ids.find());
+                }
+                break;
+            }
+            case "DELETE_PROP": {
+                // 拾取往返：发送DELETE_PROP到收到删除事件
+                Matcher id = DELETED_ID.matcher(message);
+                if (id.find()) {
+                    Long sentAt = pendingPickups.remove(Long.parseLong(id.group(1)));
+                    if (sentAt != null) {
+                        test.recorder("WS DELETE_PROP round trip").record(System.nanoTime() - sentAt, true);
+                    }
+                }
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    private HttpRequest.Builder authorized(String path) {
+        return HttpRequest.newBuilder(test.uri(path))
+                .timeout(java.time.Duration.ofSeconds(30))
+                .header("Authorization", "Bearer " + token);
+    }
+
+    private HttpResponse<String> send(HttpRequest request, LatencyRecorder recorder) {
+        try {
+            return sendAsync(request, recorder).get();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    // 2xx/3xx视为成功（登录注册返回页面）
+    private CompletableFuture<HttpResponse<String>> sendAsync(HttpRequest request, LatencyRecorder recorder) {
+        test.requestStarted();
+        long start = System.nanoTime();
+        return http.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .handle((response, error) -> {
+                    test.requestFinished();
+                    boolean success = error == null && response.statusCode() < 400;
+                    recorder.record(System.nanoTime() - start, success);
+                    return success ? response : null;
+                });
+    }
+
+    private class PropListener implements WebSocket.Listener {
+        private final StringBuilder partial = new StringBuilder();
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            partial.append(data);
+            if (last) {
+                onPropMessage(partial.toString());
+                partial.setLength(0);
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public void onError(WebSocket webSocket, Throwable error) {
+            test.socketErrors.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.example.build;
+
+import com.aayushatharva.brotli4j.Brotli4jLoader;
+import com.aayushatharva.brotli4j.encoder.Encoder;
+import com.google.javascript.jscomp.CompilationLevel;
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerOptions;
+import com.google.javascript.jscomp.JSError;
+import com.google.javascript.jscomp.Result;
+import com.google.javascript.jscomp.SourceFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 生产构建的静态资源处理（mvn -Pprod package 时在打包前执行）
+ *
+ * 对target/classes下指定目录中的每个.js文件：
+ *   1. 用Closure Compiler压缩（SIMPLE级别，只重命名局部变量，脚本之间共享的全局变量保持不变）；
+ *      ES模块文件（含import/export语句）不做压缩，避免模块被改写
+ *   2. 生成最高压缩级别的.gz和.br预压缩文件，运行时按Accept-Encoding直接返回
+ * 带内容哈希的文件名由运行时的资源链生成（见StaticAssetConfig），哈希基于压缩后的内容
+ */
+public class AssetPipeline {
+
+    private static final Pattern ES_MODULE = Pattern.compile("^\\s*(import|export)\\s", Pattern.MULTILINE);
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            throw new IllegalArgumentException("用法: AssetPipeline <脚本目录>");
+        }
+        Brotli4jLoader.ensureAvailability();
+
+        List<Path> scripts;
+        try (Stream<Path> files = Files.walk(Paths.get(args[0]))) {
+            scripts = files.filter(path -> path.toString().endsWith(".js")).sorted().collect(Collectors.toList());
+        }
+        long originalTotal = 0;
+        long brotliTotal = 0;
+        for (Path script : scripts) {
+            String source = new String(Files.readAllBytes(script), StandardCharsets.UTF_8);
+            byte[] output = ES_MODULE.matcher(source).find()
+                    ? source.getBytes(StandardCharsets.UTF_8)
+                    : minify(script, source).getBytes(StandardCharsets.UTF_8);
+            Files.write(script, output);
+
+            byte[] gzip = gzip(output);
+            byte[] brotli = Encoder.compress(output, new Encoder.Parameters().setQuality(11));
+            Files.write(Paths.get(script + ".gz"), gzip);
+            Files.write(Paths.get(script + ".br"), brotli);
+
+            originalTotal += source.getBytes(StandardCharsets.UTF_8).length;
+            brotliTotal += brotli.length;
+            System.out.printf("%s: %d -> %d 字节（gzip %d，brotli %d）%n", script.getFileName(),
+                    source.getBytes(StandardCharsets.UTF_8).length, output.length, gzip.length, brotli.length);
+        }
+        System.out.printf("共%d个脚本：%d -> %d 字节（brotli）%n", scripts.size(), originalTotal, brotliTotal);
+    }
+
+    private static String minify(Path script, String source) {
+        CompilerOptions options = new CompilerOptions();
+        CompilationLevel.SIMPLE_OPTIMIZATIONS.setOptionsForCompilationLevel(options);
+        options.setLanguageIn(CompilerOptions.LanguageMode.STABLE_IN);
+        options.setLanguageOut(CompilerOptions.LanguageMode.ECMASCRIPT_2017);
+        // 原脚本不是严格模式代码，不能额外加上"use strict"
+        options.setEmitUseStrict(false);
+
+        Compiler compiler = new Compiler(System.err);
+        Result result = compiler.compile(Collections.<SourceFile>emptyList(),
+                Collections.singletonList(SourceFile.fromCode(script.getFileName().toString(), source)), options);
+        if (!result.success) {
+            StringBuilder errors = new StringBuilder();
+            for (JSError error : result.errors) {
+                errors.append(System.lineSeparator()).append(error);
+            }
+            throw new IllegalStateException("压缩失败: " + script + errors);
+        }
+        return compiler.toSource();
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+}
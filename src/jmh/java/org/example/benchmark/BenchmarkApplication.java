@@ -0,0 +1,27 @@
+package org.example.benchmark;
+
+import org.example.Main;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * 基准测试用的应用上下文：内存H2数据库、随机端口、关闭SQL日志
+ */
+public final class BenchmarkApplication {
+
+    private BenchmarkApplication() {}
+
+    public static ConfigurableApplicationContext start(String... extraArgs) {
+        String[] base = {
+                "--spring.datasource.url=jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+                "--server.port=0",
+                "--spring.jpa.show-sql=false",
+                "--spring.devtools.restart.enabled=false",
+                "--logging.level.root=WARN"
+        };
+        String[] args = new String[base.length + extraArgs.length];
+        System.arraycopy(base, 0, args, 0, base.length);
+        System.arraycopy(extraArgs, 0, args, base.length, extraArgs.length);
+        return SpringApplication.run(Main.class, args);
+    }
+}
@@ -0,0 +1,67 @@
+package org.example.benchmark;
+
+import org.example.dto.Cube;
+import org.example.dto.Position;
+import org.example.service.CubeService;
+import org.example.service.CubeWriteBehindService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 移动上报的保存耗时（对应POST /api/cube/save和二进制移动通道），数据库为内存H2
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CubeSaveBenchmark {
+
+    private static final String USERNAME = "bench";
+
+    @Param({"jpa", "mapped"})
+    private String trailStore;
+
+    private ConfigurableApplicationContext context;
+    private CubeService cubeService;
+    private CubeWriteBehindService cubeWriteBehindService;
+    private int step;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        context = BenchmarkApplication.start(
+                "--game.trail.store=" + trailStore,
+                "--game.trail.dir=" + Files.createTempDirectory("bench-trails"));
+        cubeService = context.getBean(CubeService.class);
+        cubeWriteBehindService = context.getBean(CubeWriteBehindService.class);
+        cubeService.getCubeByUsername(USERNAME);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    // 每次迭代结束时把写回缓冲落库，避免积压到下一轮
+    @TearDown(Level.Iteration)
+    public void flush() {
+        cubeWriteBehindService.flush();
+    }
+
+    // 沿螺旋线移动，每次保存都落在新的地面格子上
+    @Benchmark
+    public Cube saveUserCube() {
+        int i = step++;
+        double angle = i * 0.05;
+        double radius = 20 + (i % 20000) * 0.02;
+        Cube cube = new Cube(new Position(radius * Math.cos(angle), 5, radius * Math.sin(angle)),
+                new Position(0, 35, 50), "#FF0000", 10);
+        cube.setUsername(USERNAME);
+        return cubeService.saveUserCube(cube);
+    }
+}
@@ -0,0 +1,58 @@
+package org.example.benchmark;
+
+import org.example.dto.MapData;
+import org.example.repository.TrailStore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * 基准测试用的内存轨迹存储（单用户）
+ */
+public class InMemoryTrailStore implements TrailStore {
+
+    private List<MapData> records = new ArrayList<>();
+
+    public void reset(List<MapData> data) {
+        records = new ArrayList<>(data);
+    }
+
+    @Override
+    public void append(MapData mapData) {
+        mapData.setId((long) records.size() + 1);
+        records.add(mapData);
+    }
+
+    @Override
+    public void forEach(String username, Consumer<MapData> consumer) {
+        records.forEach(consumer);
+    }
+
+    @Override
+    public void removeAll(String username, Collection<MapData> removed) {
+        Set<Long> ids = new HashSet<>();
+        for (MapData mapData : removed) {
+            ids.add(mapData.getId());
+        }
+        records.removeIf(mapData -> ids.contains(mapData.getId()));
+    }
+
+    @Override
+    public void deleteByUsername(String username) {
+        records.clear();
+    }
+
+    @Override
+    public long count(String username) {
+        return records.size();
+    }
+
+    @Override
+    public long sizeInBytes(String username) {
+        return -1;
+    }
+}
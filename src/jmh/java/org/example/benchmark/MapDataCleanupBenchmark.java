@@ -0,0 +1,55 @@
+package org.example.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.dto.MapData;
+import org.example.service.MapDataService;
+import org.example.service.OccupancyRasterService;
+import org.example.service.TrailTileService;
+import org.example.service.UserStateCache;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 后台轨迹清理单个用户的耗时（对应MapDataService.cleanUpPendingMapData中的一次清理）
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class MapDataCleanupBenchmark {
+
+    private static final String USERNAME = "bench";
+
+    @Param({"10000", "100000", "1000000"})
+    private int trailSize;
+
+    private List<MapData> trail;
+    private InMemoryTrailStore trailStore;
+    private MapDataService mapDataService;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        trail = TrailGenerator.randomWalk(USERNAME, trailSize, 42);
+        trailStore = new InMemoryTrailStore();
+    }
+
+    // 每次迭代都从未清理的轨迹开始
+    @Setup(Level.Iteration)
+    public void resetTrail() {
+        trailStore.reset(trail);
+        OccupancyRasterService occupancyRasterService = new OccupancyRasterService(trailStore);
+        mapDataService = new MapDataService(trailStore, occupancyRasterService, new UserStateCache(1, 10, 500_000),
+                new TrailTileService(trailStore, occupancyRasterService, 100, 10), new SimpleMeterRegistry());
+    }
+
+    @Benchmark
+    public void cleanup(Blackhole blackhole) {
+        mapDataService.cleanUpOverlappedMapData(USERNAME);
+        blackhole.consume(trailStore.count(USERNAME));
+    }
+}
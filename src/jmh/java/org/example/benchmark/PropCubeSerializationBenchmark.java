@@ -0,0 +1,60 @@
+package org.example.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.dto.GameEvent;
+import org.example.dto.Position;
+import org.example.dto.PropCube;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 道具的Jackson序列化耗时：单个道具事件与重连快照
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PropCubeSerializationBenchmark {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private PropCube propCube;
+    private List<PropCube> snapshot;
+
+    @Setup(Level.Trial)
+    public void create() {
+        propCube = prop(1, new Position(120, 5, -340));
+        snapshot = new ArrayList<>();
+        snapshot.add(prop(1, new Position(120, 5, 340)));
+        snapshot.add(prop(2, new Position(-120, 5, 340)));
+        snapshot.add(prop(3, new Position(-120, 5, -340)));
+        snapshot.add(prop(4, new Position(120, 5, -340)));
+    }
+
+    private static PropCube prop(long id, Position position) {
+        PropCube propCube = new PropCube(position, "#3FA2C8", 5, 1.75, "bench");
+        propCube.setId(id);
+        return propCube;
+    }
+
+    @Benchmark
+    public String writePropCube() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(propCube);
+    }
+
+    // 事件总线上的道具新增事件
+    @Benchmark
+    public GameEvent propAddedEvent() {
+        return GameEvent.of(GameEvent.PROP_ADDED, "bench", propCube);
+    }
+
+    @Benchmark
+    public String writeSnapshot() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(snapshot);
+    }
+}
@@ -0,0 +1,77 @@
+package org.example.benchmark;
+
+import org.example.config.JwtHandshakeInterceptor;
+import org.example.dto.GameEvent;
+import org.example.dto.Position;
+import org.example.dto.PropCube;
+import org.example.service.LocalGameEventBus;
+import org.example.service.PropCubeWebSocketHandler;
+import org.example.service.WebSocketOutbound;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 道具事件推送给同一用户多个连接的耗时（发布线程上的序列化、记录日志和入队）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PropFanOutBenchmark {
+
+    private static final String USERNAME = "bench";
+
+    @Param({"1", "10", "100"})
+    private int sessionCount;
+
+    private WebSocketOutbound outbound;
+    private LocalGameEventBus eventBus;
+    private PropCubeWebSocketHandler handler;
+    private List<StubWebSocketSession> sessions;
+    private PropCube propCube;
+
+    @Setup(Level.Trial)
+    public void connect() throws Exception {
+        outbound = new WebSocketOutbound(256, WebSocketOutbound.OverflowPolicy.COALESCE, 5000, 4, false);
+        eventBus = new LocalGameEventBus();
+        handler = new PropCubeWebSocketHandler();
+        handler.setOutbound(outbound);
+        handler.setEventBus(eventBus);
+        handler.setEventLogCapacity(256);
+
+        // 连接并完成补发，之后才会收到实时事件
+        String resume = "{\"type\":\"RESUME\",\"epoch\":" + PropCubeWebSocketHandler.currentEpoch(USERNAME) + ",\"lastSeq\":0}";
+        sessions = new ArrayList<>();
+        for (int i = 0; i < sessionCount; i++) {
+            StubWebSocketSession session = new StubWebSocketSession("s" + i,
+                    Collections.singletonMap(JwtHandshakeInterceptor.USERNAME_ATTRIBUTE, USERNAME));
+            handler.afterConnectionEstablished(session);
+            handler.handleMessage(session, new TextMessage(resume));
+            sessions.add(session);
+        }
+
+        propCube = new PropCube(new Position(120, 5, -340), "#3FA2C8", 5, 1.75, USERNAME);
+        propCube.setId(1L);
+    }
+
+    @TearDown(Level.Trial)
+    public void disconnect() {
+        for (StubWebSocketSession session : sessions) {
+            handler.afterConnectionClosed(session, CloseStatus.NORMAL);
+        }
+        outbound.shutdown();
+    }
+
+    @Benchmark
+    public void publishPropAdded() {
+        eventBus.publish(GameEvent.of(GameEvent.PROP_ADDED, USERNAME, propCube));
+    }
+}
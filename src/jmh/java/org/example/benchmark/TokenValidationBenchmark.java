@@ -0,0 +1,71 @@
+package org.example.benchmark;
+
+import io.jsonwebtoken.Claims;
+import org.example.service.UserService;
+import org.example.service.VerifiedTokenCache;
+import org.example.utils.JwtTokenUtil;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每个接口请求的token验证耗时（对应GameController.validateToken）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokenValidationBenchmark {
+
+    private static final String USERNAME = "bench";
+
+    private ConfigurableApplicationContext context;
+    private JwtTokenUtil jwtTokenUtil;
+    private UserService userService;
+    private VerifiedTokenCache verifiedTokenCache;
+    private String token;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = BenchmarkApplication.start();
+        jwtTokenUtil = context.getBean(JwtTokenUtil.class);
+        userService = context.getBean(UserService.class);
+        verifiedTokenCache = context.getBean(VerifiedTokenCache.class);
+        userService.registerUser(USERNAME, "password");
+        token = jwtTokenUtil.generateToken(USERNAME);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    // 旧实现：两次解析JWT + 一次用户查询
+    @Benchmark
+    public String parseTwiceAndQueryUser() {
+        String username = jwtTokenUtil.extractUsername(token);
+        if (!jwtTokenUtil.validateToken(token, username) || userService.findByUsername(username) == null) {
+            throw new RuntimeException("token验证失败");
+        }
+        return username;
+    }
+
+    // 缓存未命中时的路径：一次解析 + 一次用户查询
+    @Benchmark
+    public String parseOnce() {
+        Claims claims = jwtTokenUtil.extractAllClaims(token);
+        if (userService.findByUsername(claims.getSubject()) == null) {
+            throw new RuntimeException("token验证失败");
+        }
+        return claims.getSubject();
+    }
+
+    // 缓存命中：只计算摘要
+    @Benchmark
+    public String verifiedTokenCache() {
+        return verifiedTokenCache.verify(token);
+    }
+}
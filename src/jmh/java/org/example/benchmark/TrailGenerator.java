@@ -0,0 +1,50 @@
+package org.example.benchmark;
+
+import org.example.dto.MapData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * 生成模拟玩家移动的轨迹：每帧移动2个单位，偶尔转向，拾取道具后变色变大
+ */
+public final class TrailGenerator {
+
+    private static final double HALF_FLOOR = 500;
+
+    private TrailGenerator() {}
+
+    public static List<MapData> randomWalk(String username, int count, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        List<MapData> trail = new ArrayList<>(count);
+        double x = 0;
+        double z = 0;
+        double angle = 0;
+        double size = 10;
+        int renderOrder = 0;
+        String color = "#FFFFFF";
+        for (int i = 0; i < count; i++) {
+            if (random.nextInt(30) == 0) {
+                angle += (random.nextDouble() - 0.5) * Math.PI;
+            }
+            if (random.nextInt(2000) == 0) {
+                size = Math.min(size * 1.2, 100);
+                renderOrder++;
+                color = String.format("#%06X", random.nextInt(0x1000000));
+            }
+            x = clamp(x + Math.cos(angle) * 2, size);
+            z = clamp(z + Math.sin(angle) * 2, size);
+            MapData mapData = new MapData(username, x, z, color, size);
+            mapData.setRenderOrder(renderOrder);
+            mapData.setId((long) i + 1);
+            trail.add(mapData);
+        }
+        return trail;
+    }
+
+    private static double clamp(double value, double size) {
+        double bound = HALF_FLOOR - size / 2;
+        return Math.max(-bound, Math.min(bound, value));
+    }
+}
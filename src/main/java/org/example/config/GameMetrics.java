@@ -0,0 +1,126 @@
+package org.example.config;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.example.repository.TrailStore;
+import org.example.service.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 把各服务已有的统计值注册为Micrometer指标（名称统一以game.开头，作为看板和告警的稳定接口）
+ * 耗时类指标（game.cube.save、game.mapdata.*、game.auth.validate、game.time.tick*）在各服务中直接记录，
+ * 控制器接口耗时由Spring Boot的http.server.requests按uri统计
+ *
+ * 不实现MeterBinder：MeterBinder在注册表创建时绑定，而这里依赖的服务本身又需要注入注册表
+ */
+@Component
+public class GameMetrics {
+
+    private final MeterRegistry registry;
+    private final CubeWriteBehindService cubeWriteBehindService;
+    private final VerifiedTokenCache verifiedTokenCache;
+    private final UserStateCache userStateCache;
+    private final WebSocketOutbound webSocketOutbound;
+    private final PropSpawnScheduler propSpawnScheduler;
+    private final PropCubeService propCubeService;
+    private final TrailStore trailStore;
+
+    // 在线用户的地图数据行数（合计和单个用户最大值），定时刷新；
+    // 不按用户名打标签，/actuator/prometheus 无需认证，标签会暴露用户名
+    private final AtomicLong mapDataRowsTotal = new AtomicLong();
+    private final AtomicLong mapDataRowsMax = new AtomicLong();
+
+    @Autowired
+    public GameMetrics(MeterRegistry registry, CubeWriteBehindService cubeWriteBehindService,
+                       VerifiedTokenCache verifiedTokenCache, UserStateCache userStateCache,
+                       WebSocketOutbound webSocketOutbound, PropSpawnScheduler propSpawnScheduler,
+                       PropCubeService propCubeService, TrailStore trailStore) {
+        this.registry = registry;
+        this.cubeWriteBehindService = cubeWriteBehindService;
+        this.verifiedTokenCache = verifiedTokenCache;
+        this.userStateCache = userStateCache;
+        this.webSocketOutbound = webSocketOutbound;
+        this.propSpawnScheduler = propSpawnScheduler;
+        this.propCubeService = propCubeService;
+        this.trailStore = trailStore;
+    }
+
+    @PostConstruct
+    public void bind() {
+        // 游戏状态
+        Gauge.builder("game.games.active", propSpawnScheduler, PropSpawnScheduler::getActiveCount)
+                .description("进行中且未暂停的游戏数").register(registry);
+        Gauge.builder("game.websocket.sessions", webSocketOutbound, WebSocketOutbound::getSessionCount)
+                .description("打开的WebSocket会话数").register(registry);
+        Gauge.builder("game.websocket.players", () -> GameSessionWebSocketHandler.connectedUsers().size())
+                .description("连接了游戏会话通道的用户数").register(registry);
+        Gauge.builder("game.mapdata.rows", mapDataRowsTotal, AtomicLong::get)
+                .description("在线用户的地图数据行数合计").register(registry);
+        Gauge.builder("game.mapdata.rows.max", mapDataRowsMax, AtomicLong::get)
+                .description("在线用户中单个用户的最大地图数据行数").register(registry);
+
+        // 道具
+        FunctionCounter.builder("game.props.spawned", propCubeService, PropCubeService::getSpawnedCount)
+                .description("生成的道具数").register(registry);
+        FunctionCounter.builder("game.props.deleted", propCubeService, PropCubeService::getDeletedCount)
+                .description("删除（拾取）的道具数").register(registry);
+
+        // WebSocket发送
+        FunctionCounter.builder("game.websocket.send.failures", webSocketOutbound, WebSocketOutbound::getTotalSendFailures)
+                .description("发送失败并断开的次数").register(registry);
+        FunctionCounter.builder("game.websocket.messages.dropped", webSocketOutbound, WebSocketOutbound::getTotalDropped)
+                .description("队列满或被合并而丢弃的消息数").register(registry);
+        FunctionCounter.builder("game.websocket.events.dropped", webSocketOutbound, WebSocketOutbound::getTotalEventsDropped)
+                .description("队列满时丢弃的不可合并消息（如道具事件）").register(registry);
+        FunctionCounter.builder("game.websocket.slow.disconnects", webSocketOutbound, WebSocketOutbound::getTotalDisconnected)
+                .description("队列满被断开的慢客户端数").register(registry);
+        Gauge.builder("game.websocket.outbound.queued", webSocketOutbound, WebSocketOutbound::getQueuedMessages)
+                .description("排队待发送的消息数").register(registry);
+        Gauge.builder("game.websocket.outbound.oldest", webSocketOutbound, WebSocketOutbound::getMaxQueuedMillis)
+                .description("排队最久的消息已等待的时长").baseUnit("milliseconds").register(registry);
+
+        // 位置写回
+        Gauge.builder("game.cube.writebehind.pending", cubeWriteBehindService, CubeWriteBehindService::getQueueDepth)
+                .description("待写入的用户数").register(registry);
+        FunctionCounter.builder("game.cube.writebehind.rows", cubeWriteBehindService, CubeWriteBehindService::getFlushedRows)
+                .description("已批量写入的行数").register(registry);
+        FunctionCounter.builder("game.cube.writebehind.flushes", cubeWriteBehindService, CubeWriteBehindService::getFlushCount)
+                .description("批量写入次数").register(registry);
+        FunctionCounter.builder("game.cube.writebehind.failures", cubeWriteBehindService, CubeWriteBehindService::getFailedFlushes)
+                .description("批量写入失败次数（失败的位置放回缓冲区重试）").register(registry);
+        Gauge.builder("game.cube.writebehind.flush.max", cubeWriteBehindService, CubeWriteBehindService::getMaxFlushMillis)
+                .description("最大批量写入耗时").baseUnit("milliseconds").register(registry);
+
+        // 缓存
+        FunctionCounter.builder("game.auth.token.cache", verifiedTokenCache, VerifiedTokenCache::getHitCount)
+                .tag("result", "hit").register(registry);
+        FunctionCounter.builder("game.auth.token.cache", verifiedTokenCache, VerifiedTokenCache::getMissCount)
+                .tag("result", "miss").register(registry);
+        Gauge.builder("game.auth.token.cache.size", verifiedTokenCache, VerifiedTokenCache::getSize)
+                .register(registry);
+        FunctionCounter.builder("game.cache.requests", userStateCache, UserStateCache::getHitCount)
+                .tag("result", "hit").register(registry);
+        FunctionCounter.builder("game.cache.requests", userStateCache, UserStateCache::getMissCount)
+                .tag("result", "miss").register(registry);
+    }
+
+    // 只统计在线用户，每个用户一次count查询
+    @Scheduled(fixedDelayString = "${game.metrics.mapdata-rows.refresh-ms:30000}")
+    public void refreshMapDataRows() {
+        long total = 0;
+        long max = 0;
+        for (String username : GameSessionWebSocketHandler.connectedUsers()) {
+            long rows = trailStore.count(username);
+            total += rows;
+            max = Math.max(max, rows);
+        }
+        mapDataRowsTotal.set(total);
+        mapDataRowsMax.set(max);
+    }
+}
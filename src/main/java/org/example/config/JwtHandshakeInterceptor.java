@@ -0,0 +1,53 @@
+package org.example.config;
+
+import org.example.service.VerifiedTokenCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.util.Map;
+
+/**
+ * WebSocket握手时校验JWT（浏览器无法设置请求头，token通过查询参数传递），
+ * 校验通过后把用户名放入会话属性
+ */
+@Component
+public class JwtHandshakeInterceptor implements HandshakeInterceptor {
+
+    // 会话属性中保存用户名的key
+    public static final String USERNAME_ATTRIBUTE = "username";
+
+    private final VerifiedTokenCache verifiedTokenCache;
+
+    @Autowired
+    public JwtHandshakeInterceptor(VerifiedTokenCache verifiedTokenCache) {
+        this.verifiedTokenCache = verifiedTokenCache;
+    }
+
+    @Override
+    public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                   WebSocketHandler wsHandler, Map<String, Object> attributes) {
+        String token = UriComponentsBuilder.fromUri(request.getURI()).build()
+                .getQueryParams().getFirst("token");
+        try {
+            if (token != null) {
+                attributes.put(USERNAME_ATTRIBUTE, verifiedTokenCache.verify(token));
+                return true;
+            }
+        } catch (Exception e) {
+            System.out.println("WebSocket token验证失败: " + e.getMessage());
+        }
+        response.setStatusCode(HttpStatus.UNAUTHORIZED);
+        return false;
+    }
+
+    @Override
+    public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                               WebSocketHandler wsHandler, Exception exception) {
+    }
+}
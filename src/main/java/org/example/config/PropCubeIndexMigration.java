@@ -0,0 +1,49 @@
+package org.example.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 旧版本的game_prop_cube在index列上有全局唯一约束（所有用户共用4个象限），
+ * ddl-auto=update只会新增(username, index)约束而不会删除旧约束，这里在启动时把它删掉
+ */
+@Component
+public class PropCubeIndexMigration {
+
+    private static final String FIND_INDEX_ONLY_UNIQUE =
+            "SELECT tc.CONSTRAINT_NAME FROM INFORMATION_SCHEMA.TABLE_CONSTRAINTS tc " +
+            "JOIN INFORMATION_SCHEMA.KEY_COLUMN_USAGE kcu " +
+            "ON kcu.CONSTRAINT_SCHEMA = tc.CONSTRAINT_SCHEMA AND kcu.CONSTRAINT_NAME = tc.CONSTRAINT_NAME " +
+            "WHERE tc.TABLE_NAME = 'GAME_PROP_CUBE' AND tc.CONSTRAINT_TYPE = 'UNIQUE' " +
+            "GROUP BY tc.CONSTRAINT_NAME " +
+            "HAVING COUNT(*) = 1 AND MAX(kcu.COLUMN_NAME) = 'INDEX'";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public PropCubeIndexMigration(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    // 先于道具生成调度执行
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    @EventListener(ApplicationReadyEvent.class)
+    public void dropGlobalIndexConstraint() {
+        try {
+            List<String> constraints = jdbcTemplate.queryForList(FIND_INDEX_ONLY_UNIQUE, String.class);
+            for (String constraint : constraints) {
+                jdbcTemplate.execute("ALTER TABLE game_prop_cube DROP CONSTRAINT \"" + constraint + "\"");
+                System.out.println("已删除道具象限的全局唯一约束: " + constraint);
+            }
+        } catch (RuntimeException e) {
+            System.out.println("道具象限约束迁移失败: " + e.getMessage());
+        }
+    }
+}
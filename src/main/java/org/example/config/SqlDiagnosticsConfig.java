@@ -0,0 +1,138 @@
+package org.example.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * SQL诊断模式（game.diagnostics.sql.enabled=true）：
+ *   每个HTTP请求统计执行的SQL语句数，写入响应头X-SQL-Statements和指标game.sql.statements；
+ *   与接口上@StatementBudget声明的预算比较，超出时记录日志和game.sql.budget.exceeded，
+ *   game.diagnostics.sql.enforce-budget=true时改为返回500，用于压测或回归检查时让超标直接失败
+ *
+ * 流式输出的轨迹/瓦片/小地图接口不缓存响应体，只统计指标和记录超标日志，不写响应头也不改为500
+ */
+@Configuration
+@ConditionalOnProperty(name = "game.diagnostics.sql.enabled", havingValue = "true")
+public class SqlDiagnosticsConfig implements WebMvcConfigurer {
+
+    public static final String STATEMENTS_HEADER = "X-SQL-Statements";
+    private static final String BUDGET_ATTRIBUTE = "sqlStatementBudget";
+
+    // 记录处理请求的接口声明的预算
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new HandlerInterceptor() {
+            @Override
+            public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+                if (handler instanceof HandlerMethod) {
+                    StatementBudget budget = ((HandlerMethod) handler).getMethodAnnotation(StatementBudget.class);
+                    if (budget != null) {
+                        request.setAttribute(BUDGET_ATTRIBUTE, budget.value());
+                    }
+                }
+                return true;
+            }
+        });
+    }
+
+    @Bean
+    public FilterRegistrationBean<SqlDiagnosticsFilter> sqlDiagnosticsFilter(
+            MeterRegistry meterRegistry,
+            @Value("${game.diagnostics.sql.enforce-budget:false}") boolean enforceBudget) {
+        FilterRegistrationBean<SqlDiagnosticsFilter> registration =
+                new FilterRegistrationBean<>(new SqlDiagnosticsFilter(meterRegistry, enforceBudget));
+        registration.addUrlPatterns("/*");
+        return registration;
+    }
+
+    /**
+     * 统计请求的SQL语句数；响应体先缓存，等语句数确定后再写出，以便设置响应头（流式接口除外）
+     */
+    public static class SqlDiagnosticsFilter extends OncePerRequestFilter {
+
+        private final MeterRegistry meterRegistry;
+        private final boolean enforceBudget;
+
+        SqlDiagnosticsFilter(MeterRegistry meterRegistry, boolean enforceBudget) {
+            this.meterRegistry = meterRegistry;
+            this.enforceBudget = enforceBudget;
+        }
+
+        // WebSocket握手和静态资源不统计
+        @Override
+        protected boolean shouldNotFilter(HttpServletRequest request) {
+            String path = request.getRequestURI();
+            return path.startsWith("/ws/") || path.startsWith("/game/js/") || path.startsWith("/actuator");
+        }
+
+        // 直接写出响应体的接口，缓存会把整条轨迹或瓦片留在内存里
+        private static boolean isStreaming(HttpServletRequest request) {
+            String path = request.getRequestURI();
+            return path.equals("/api/map/trail.bin") || path.equals("/api/map/lod")
+                    || path.startsWith("/api/map/tiles/") || path.startsWith("/api/map/minimap/");
+        }
+
+        @Override
+        protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+                throws ServletException, IOException {
+            boolean streaming = isStreaming(request);
+            ContentCachingResponseWrapper wrapper = streaming ? null : new ContentCachingResponseWrapper(response);
+            SqlStatementCounter.start();
+            int statements;
+            try {
+                chain.doFilter(request, streaming ? response : wrapper);
+            } finally {
+                statements = SqlStatementCounter.stop();
+            }
+
+            Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            String uri = pattern != null ? pattern.toString() : "UNKNOWN";
+            DistributionSummary.builder("game.sql.statements")
+                    .description("单次请求执行的SQL语句数")
+                    .tag("uri", uri)
+                    .register(meterRegistry)
+                    .record(statements);
+
+            Integer budget = (Integer) request.getAttribute(BUDGET_ATTRIBUTE);
+            boolean exceeded = budget != null && statements > budget;
+            if (exceeded) {
+                System.out.println("SQL语句数超出预算: " + uri + " 执行" + statements + "条，预算" + budget + "条");
+                Counter.builder("game.sql.budget.exceeded").tag("uri", uri).register(meterRegistry).increment();
+            }
+            // 流式接口的响应已经写出，无法再设置响应头
+            if (streaming) {
+                return;
+            }
+
+            wrapper.setHeader(STATEMENTS_HEADER, String.valueOf(statements));
+            if (exceeded && enforceBudget) {
+                wrapper.resetBuffer();
+                wrapper.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                wrapper.setContentType("application/json;charset=UTF-8");
+                String error = "{\"error\":\"SQL语句数超出预算: 执行" + statements + "条，预算" + budget + "条\"}";
+                wrapper.getOutputStream().write(error.getBytes(StandardCharsets.UTF_8));
+            }
+            wrapper.copyBodyToResponse();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.example.config;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * 统计当前线程执行的Hibernate SQL语句数，由Hibernate通过配置项
+ * spring.jpa.properties.hibernate.session_factory.statement_inspector 实例化
+ *
+ * 只在调用start()之后计数（诊断模式下由SqlDiagnosticsFilter按请求开启），其余时间只有一次ThreadLocal读取
+ */
+public class SqlStatementCounter implements StatementInspector {
+
+    private static final ThreadLocal<int[]> COUNTER = new ThreadLocal<>();
+
+    @Override
+    public String inspect(String sql) {
+        int[] counter = COUNTER.get();
+        if (counter != null) {
+            counter[0]++;
+        }
+        return sql;
+    }
+
+    // 开始统计当前线程的语句数
+    public static void start() {
+        COUNTER.set(new int[1]);
+    }
+
+    // 结束统计并返回语句数
+    public static int stop() {
+        int[] counter = COUNTER.get();
+        COUNTER.remove();
+        return counter != null ? counter[0] : 0;
+    }
+}
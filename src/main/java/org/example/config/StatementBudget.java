@@ -0,0 +1,16 @@
+package org.example.config;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 声明接口单次请求允许执行的SQL语句数
+ * 诊断模式下超出预算会记录日志和指标，开启强制检查时请求返回500
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface StatementBudget {
+    int value();
+}
@@ -0,0 +1,52 @@
+package org.example.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.resource.EncodedResourceResolver;
+import org.springframework.web.servlet.resource.VersionResourceResolver;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.regex.Pattern;
+
+/**
+ * 生产环境的游戏脚本（game.assets.fingerprint=true，prod配置中开启）：
+ *   模板中 @{/game/js/...} 的地址由ResourceUrlEncodingFilter改写为带内容哈希的地址，如 three-<md5>.js；
+ *   请求带 Accept-Encoding 时优先返回构建时生成的 .br/.gz 预压缩文件（见 mvn -Pprod）；
+ *   带哈希的地址内容不会变化，长期缓存且标记immutable，不带哈希的地址每次重新验证
+ */
+@Configuration
+@ConditionalOnProperty(name = "game.assets.fingerprint", havingValue = "true")
+public class StaticAssetConfig implements WebMvcConfigurer {
+
+    private static final String SCRIPTS_PATTERN = "/game/js/**";
+    private static final Pattern VERSIONED_PATH = Pattern.compile(".*-[0-9a-f]{32}\\.[^/]+$");
+
+    @Override
+    public void addResourceHandlers(ResourceHandlerRegistry registry) {
+        registry.addResourceHandler(SCRIPTS_PATTERN)
+                .addResourceLocations("classpath:/static/game/js/")
+                .resourceChain(true)
+                .addResolver(new EncodedResourceResolver())
+                .addResolver(new VersionResourceResolver().addContentVersionStrategy("/**"));
+    }
+
+    // Spring 5.3的CacheControl不支持immutable，按地址是否带哈希直接设置响应头
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new HandlerInterceptor() {
+            @Override
+            public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+                boolean versioned = VERSIONED_PATH.matcher(request.getRequestURI()).matches();
+                response.setHeader(HttpHeaders.CACHE_CONTROL,
+                        versioned ? "public, max-age=31536000, immutable" : "no-cache");
+                return true;
+            }
+        }).addPathPatterns(SCRIPTS_PATTERN);
+    }
+}
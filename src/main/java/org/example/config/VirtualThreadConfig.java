@@ -0,0 +1,52 @@
+package org.example.config;
+
+import org.example.utils.VirtualThreads;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
+
+/**
+ * 虚拟线程运行模式（game.threads.virtual=true，vthreads配置中开启，需要JDK 21及以上）：
+ *   Tomcat请求处理（包括WebSocket消息回调）改为每个请求一个虚拟线程，不再受maxThreads限制，
+ *   阻塞在JDBC上的请求只占用虚拟线程；@Scheduled任务同样运行在虚拟线程上。
+ *   WebSocket异步发送线程见WebSocketOutbound
+ */
+@Configuration
+@ConditionalOnProperty(name = "game.threads.virtual", havingValue = "true")
+public class VirtualThreadConfig implements SchedulingConfigurer {
+
+    private final int schedulingPoolSize;
+
+    public VirtualThreadConfig(@Value("${game.threads.virtual.scheduling-pool-size:8}") int schedulingPoolSize) {
+        // 启动时直接失败，避免在旧JDK上悄悄退回平台线程
+        if (!VirtualThreads.isSupported()) {
+            throw new IllegalStateException("game.threads.virtual=true 需要JDK 21及以上，当前版本: "
+                    + System.getProperty("java.version"));
+        }
+        this.schedulingPoolSize = schedulingPoolSize;
+    }
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        return protocolHandler -> protocolHandler.setExecutor(VirtualThreads.newThreadPerTaskExecutor("tomcat-vt-"));
+    }
+
+    // 调度线程数决定可同时运行的@Scheduled任务数，任务阻塞时只挂起虚拟线程
+    @Bean
+    public ThreadPoolTaskScheduler virtualThreadTaskScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(schedulingPoolSize);
+        scheduler.setThreadFactory(VirtualThreads.threadFactory("scheduling-vt-"));
+        return scheduler;
+    }
+
+    @Override
+    public void configureTasks(ScheduledTaskRegistrar registrar) {
+        registrar.setTaskScheduler(virtualThreadTaskScheduler());
+    }
+}
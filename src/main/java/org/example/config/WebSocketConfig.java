@@ -1,5 +1,7 @@
 package org.example.config;
 
+import org.example.service.CubeMovementWebSocketHandler;
+import org.example.service.GameSessionWebSocketHandler;
 import org.example.service.PropCubeWebSocketHandler;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
@@ -12,16 +14,36 @@ public class WebSocketConfig implements WebSocketConfigurer {
 
     // 注入Spring管理的PropCubeWebSocketHandler Bean
     private final PropCubeWebSocketHandler propCubeWebSocketHandler;
+    private final GameSessionWebSocketHandler gameSessionWebSocketHandler;
+    private final CubeMovementWebSocketHandler cubeMovementWebSocketHandler;
+    private final JwtHandshakeInterceptor jwtHandshakeInterceptor;
 
     // 构造方法注入（推荐，替代字段注入）
-    public WebSocketConfig(PropCubeWebSocketHandler propCubeWebSocketHandler) {
+    public WebSocketConfig(PropCubeWebSocketHandler propCubeWebSocketHandler,
+                           GameSessionWebSocketHandler gameSessionWebSocketHandler,
+                           CubeMovementWebSocketHandler cubeMovementWebSocketHandler,
+                           JwtHandshakeInterceptor jwtHandshakeInterceptor) {
         this.propCubeWebSocketHandler = propCubeWebSocketHandler;
+        this.gameSessionWebSocketHandler = gameSessionWebSocketHandler;
+        this.cubeMovementWebSocketHandler = cubeMovementWebSocketHandler;
+        this.jwtHandshakeInterceptor = jwtHandshakeInterceptor;
     }
 
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
         // 注册WebSocket处理器，映射路径并允许跨域
         registry.addHandler(propCubeWebSocketHandler, "/ws/propcubes")
+                .addInterceptors(jwtHandshakeInterceptor) // 握手时校验token，道具事件按用户推送
                 .setAllowedOrigins("*"); // 生产环境需限制 origins
+
+        // 游戏会话通道（计时事件推送），握手时校验token
+        registry.addHandler(gameSessionWebSocketHandler, "/ws/game")
+                .addInterceptors(jwtHandshakeInterceptor)
+                .setAllowedOrigins("*");
+
+        // 立方体移动二进制上报通道，握手时校验token
+        registry.addHandler(cubeMovementWebSocketHandler, "/ws/cube")
+                .addInterceptors(jwtHandshakeInterceptor)
+                .setAllowedOrigins("*");
     }
 }
\ No newline at end of file
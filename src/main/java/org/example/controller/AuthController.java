@@ -3,6 +3,7 @@ package org.example.controller;
 import org.example.dto.User;
 import org.example.service.CubeService;
 import org.example.service.UserService;
+import org.example.service.VerifiedTokenCache;
 import org.example.utils.JwtTokenUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
@@ -19,12 +20,15 @@ public class AuthController {
     private final UserService userService;
     private final JwtTokenUtil jwtTokenUtil;
     private final CubeService cubeService;
+    private final VerifiedTokenCache verifiedTokenCache;
 
     @Autowired
-    public AuthController(UserService userService, JwtTokenUtil jwtTokenUtil, CubeService cubeService) {
+    public AuthController(UserService userService, JwtTokenUtil jwtTokenUtil, CubeService cubeService,
+                          VerifiedTokenCache verifiedTokenCache) {
         this.userService = userService;
         this.jwtTokenUtil = jwtTokenUtil;
         this.cubeService = cubeService;
+        this.verifiedTokenCache = verifiedTokenCache;
     }
 
     // 注册逻辑 - 添加消息传递
@@ -75,6 +79,8 @@ public class AuthController {
     // 登出逻辑
     @PostMapping("/logout")
     public String logout(HttpSession session, Model model) {
+        // 清除该会话token的验证缓存
+        verifiedTokenCache.invalidate((String) session.getAttribute("token"));
         session.invalidate(); // 清除所有Session数据
         model.addAttribute("isLoggedIn", false);
         model.addAttribute("successMessage", "已成功退出登录");
@@ -1,48 +1,71 @@
 package org.example.controller;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.example.config.StatementBudget;
 import org.example.dto.Cube;
-import org.example.dto.MapData;
 import org.example.dto.PropCube;
 import org.example.service.*;
-import org.example.utils.JwtTokenUtil;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 @Controller
 public class GameController {
 
     private final CubeService cubeService;
-    private final JwtTokenUtil jwtTokenUtil;
     private final MapDataService mapDataService;
     private final DataCleanupService dataCleanupService;
     private final PropCubeService propCubeService;
     private final GameTimeService gameTimeService;
-    private final UserService userService;
+    private final OccupancyRasterService occupancyRasterService;
+    private final TrailTileService trailTileService;
+    private final MinimapTileService minimapTileService;
+    private final VerifiedTokenCache verifiedTokenCache;
+    // token验证耗时，按结果区分
+    private final Timer tokenValidTimer;
+    private final Timer tokenInvalidTimer;
 
     @Autowired
-    public GameController(CubeService cubeService, JwtTokenUtil jwtTokenUtil,
+    public GameController(CubeService cubeService,
                           MapDataService mapDataService, DataCleanupService dataCleanupService,
-                          PropCubeService propCubeService, GameTimeService gameTimeService, UserService userService) {
+                          PropCubeService propCubeService, GameTimeService gameTimeService,
+                          OccupancyRasterService occupancyRasterService, TrailTileService trailTileService,
+                          MinimapTileService minimapTileService, VerifiedTokenCache verifiedTokenCache,
+                          MeterRegistry meterRegistry) {
         this.cubeService = cubeService;
-        this.jwtTokenUtil = jwtTokenUtil;
         this.mapDataService = mapDataService;
         this.dataCleanupService = dataCleanupService;
         this.propCubeService = propCubeService;
         this.gameTimeService = gameTimeService;
-        this.userService = userService;
+        this.occupancyRasterService = occupancyRasterService;
+        this.trailTileService = trailTileService;
+        this.minimapTileService = minimapTileService;
+        this.verifiedTokenCache = verifiedTokenCache;
+        this.tokenValidTimer = Timer.builder("game.auth.validate").tag("result", "success").register(meterRegistry);
+        this.tokenInvalidTimer = Timer.builder("game.auth.validate").tag("result", "failure").register(meterRegistry);
     }
 
     @GetMapping("/")
+    @StatementBudget(1) // 首页：查询是否有存档
     public String index(Model model, HttpSession session) {
         boolean isLoggedIn = session.getAttribute("loggedInUser") != null;
         model.addAttribute("isLoggedIn", isLoggedIn);
@@ -59,33 +82,36 @@ public class GameController {
 
     // 游戏页面访问
     @GetMapping("/game/mainGame")
+    @StatementBudget(2) // 首次加载：cube、道具；缓存命中后为0
     public String mainGame(Model model, HttpSession session) {
         if (session.getAttribute("loggedInUser") == null) {
             return "redirect:/";
         }
         String username = (String) session.getAttribute("loggedInUser");
 
-        // 页面加载前先清理被覆盖的地图数据
-        mapDataService.cleanUpOverlappedMapData(username);
+        // 被覆盖的地图数据由后台任务清理，页面加载不再扫描整条轨迹
+        mapDataService.scheduleCleanup(username);
 
-        // 加载清理后的最新数据（后续逻辑不变）
         Cube cube = cubeService.getCubeByUsername(username);
         model.addAttribute("cube", cube);
         model.addAttribute("cameraPosition", cube.getCameraPosition());
 
-        List<MapData> mapDataList = mapDataService.getMapDataByUsername(username);
-        model.addAttribute("mapDataList", mapDataList);
+        // 地图数据不再内联到页面，客户端按视野从 /api/map/tiles 获取瓦片，小地图使用 /api/map/lod
 
+        // 先取事件序号再查询道具，客户端从该序号开始补发，不会漏掉查询期间产生的事件
+        model.addAttribute("propEventEpoch", PropCubeWebSocketHandler.currentEpoch(username));
+        model.addAttribute("propEventSeq", PropCubeWebSocketHandler.currentSeq(username));
         List<PropCube> userPropCubes = propCubeService.findPropCubesByUsername(username);
         model.addAttribute("userPropCubes", userPropCubes);
 
-        model.addAttribute("remainingTime", gameTimeService.formatTime(cube.getRemainingSeconds()));
+        model.addAttribute("remainingTime", gameTimeService.formatTime(gameTimeService.getRemainingSeconds(cube)));
 
         return "game/mainGame";
     }
 
     // 添加API接口用于保存cube状态，需要token验证
     @PostMapping("/api/cube/save")
+    @StatementBudget(2) // jpa轨迹存储时写入一条地图数据（重置后首次还要加载占用栅格），位置更新由写回缓冲批量落库
     @ResponseBody
     public ResponseEntity<?> saveCube(
             @RequestBody Cube cube,
@@ -95,8 +121,10 @@ public class GameController {
             String username = validateToken(token);
             cube.setUsername(username);
             Cube savedCube = cubeService.saveUserCube(cube);
-            propCubeService.processUserPropCubeGeneration(username, cube);
             return ResponseEntity.ok(savedCube);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(createErrorResponse(e.getMessage()));
         } catch (RuntimeException e) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
                     .body(createErrorResponse(e.getMessage()));
@@ -108,6 +136,7 @@ public class GameController {
 
     // 重置游戏数据接口
     @PostMapping("/api/game/reset")
+    @StatementBudget(8) // 清理最多4条（与轨迹长度无关），重新创建cube并初始化计时4条
     @ResponseBody
     public ResponseEntity<?> resetGameData(
             @RequestParam int gameMinutes,
@@ -132,6 +161,7 @@ public class GameController {
 
     // 添加获取剩余时间的接口
     @GetMapping("/api/game/time")
+    @StatementBudget(1)
     @ResponseBody
     public ResponseEntity<?> getRemainingTime(
             @RequestHeader(value = "Authorization", required = false) String token) {
@@ -140,7 +170,7 @@ public class GameController {
             String username = validateToken(token);
             Cube cube = cubeService.getCubeByUsername(username);
             return ResponseEntity.ok(Collections.singletonMap(
-                    "remainingTime", gameTimeService.formatTime(cube.getRemainingSeconds())
+                    "remainingTime", gameTimeService.formatTime(gameTimeService.getRemainingSeconds(cube))
             ));
         } catch (RuntimeException e) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
@@ -153,6 +183,7 @@ public class GameController {
 
     // 暂停游戏计时
     @PostMapping("/api/game/pause")
+    @StatementBudget(1)
     @ResponseBody
     public ResponseEntity<?> pauseGame(
             @RequestHeader(value = "Authorization", required = false) String token) {
@@ -172,6 +203,7 @@ public class GameController {
 
     // 继续游戏计时
     @PostMapping("/api/game/resume")
+    @StatementBudget(2) // 计时状态 + 下次道具生成时间
     @ResponseBody
     public ResponseEntity<?> resumeGame(
             @RequestHeader(value = "Authorization", required = false) String token) {
@@ -190,10 +222,160 @@ public class GameController {
         }
     }
 
+    // 地面涂色统计：已涂色面积、覆盖百分比，可选统计指定颜色的格子数
+    @GetMapping("/api/map/stats")
+    @StatementBudget(1)
+    @ResponseBody
+    public ResponseEntity<?> getMapStats(
+            @RequestParam(required = false) String color,
+            @RequestHeader(value = "Authorization", required = false) String token) {
+        try {
+            String username = validateToken(token);
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("paintedArea", occupancyRasterService.paintedArea(username));
+            stats.put("percentCovered", occupancyRasterService.percentCovered(username));
+            if (color != null) {
+                stats.put("cellsOfColor", occupancyRasterService.cellsOfColor(username, color));
+            }
+            return ResponseEntity.ok(stats);
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(createErrorResponse(e.getMessage()));
+        }
+    }
+
+    /**
+     * 地图数据完整加载：按(尺寸, 渲染顺序)分组的列式二进制（格式见TrailColumnarWriter）
+     * 从存储游标逐条编码，客户端支持时用gzip压缩后边编码边发送
+     */
+    @GetMapping("/api/map/trail.bin")
+    @StatementBudget(1)
+    public void getTrailColumns(
+            @RequestHeader(value = "Authorization", required = false) String token,
+            @RequestHeader(value = "Accept-Encoding", required = false) String acceptEncoding,
+            HttpServletResponse response) throws IOException {
+        String username;
+        try {
+            username = validateToken(token);
+        } catch (RuntimeException e) {
+            writeError(response, HttpServletResponse.SC_UNAUTHORIZED, e.getMessage());
+            return;
+        }
+        response.setHeader("Cache-Control", "no-store");
+        writeColumnar(response, acceptEncoding, out -> mapDataService.writeColumnar(username, out));
+    }
+
+    // 与指定范围相交的有数据瓦片及其ETag，客户端据此只请求进入视野且有变化的瓦片
+    @GetMapping("/api/map/tiles")
+    @StatementBudget(1) // 首次访问扫描构建瓦片索引
+    @ResponseBody
+    public ResponseEntity<?> listTiles(
+            @RequestParam double minX, @RequestParam double minZ,
+            @RequestParam double maxX, @RequestParam double maxZ,
+            @RequestHeader(value = "Authorization", required = false) String token) {
+        try {
+            String username = validateToken(token);
+            Map<String, Object> result = new HashMap<>();
+            result.put("tileSize", trailTileService.getTileSize());
+            result.put("tilesPerSide", trailTileService.getTilesPerSide());
+            result.put("tiles", trailTileService.listTiles(username, minX, minZ, maxX, maxZ));
+            return ResponseEntity.ok(result);
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(createErrorResponse(e.getMessage()));
+        }
+    }
+
+    // 单个瓦片的印记（列式二进制），If-None-Match与当前ETag一致时返回304
+    @GetMapping("/api/map/tiles/{tx}/{tz}")
+    @StatementBudget(2) // 首次访问构建瓦片索引，再按范围查询瓦片内的印记
+    public void getTile(
+            @PathVariable int tx, @PathVariable int tz,
+            @RequestHeader(value = "Authorization", required = false) String token,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch,
+            @RequestHeader(value = "Accept-Encoding", required = false) String acceptEncoding,
+            HttpServletResponse response) throws IOException {
+        String username;
+        try {
+            username = validateToken(token);
+        } catch (RuntimeException e) {
+            writeError(response, HttpServletResponse.SC_UNAUTHORIZED, e.getMessage());
+            return;
+        }
+        String etag;
+        try {
+            etag = trailTileService.tileETag(username, tx, tz);
+        } catch (IllegalArgumentException e) {
+            writeError(response, HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        if (notModified(response, etag, ifNoneMatch)) {
+            return;
+        }
+        writeColumnar(response, acceptEncoding, out -> trailTileService.writeTile(username, tx, tz, out));
+    }
+
+    // 小地图LOD：占用栅格聚合成的粗格（列式二进制），内容未变时返回304
+    @GetMapping("/api/map/lod")
+    @StatementBudget(2) // 首次访问构建瓦片索引和占用栅格
+    public void getMinimapLod(
+            @RequestHeader(value = "Authorization", required = false) String token,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch,
+            @RequestHeader(value = "Accept-Encoding", required = false) String acceptEncoding,
+            HttpServletResponse response) throws IOException {
+        String username;
+        try {
+            username = validateToken(token);
+        } catch (RuntimeException e) {
+            writeError(response, HttpServletResponse.SC_UNAUTHORIZED, e.getMessage());
+            return;
+        }
+        if (notModified(response, trailTileService.lodETag(username), ifNoneMatch)) {
+            return;
+        }
+        writeColumnar(response, acceptEncoding, out -> trailTileService.writeLod(username, out));
+    }
+
+    /**
+     * 小地图PNG瓦片，使用登录会话验证以便直接作为图片地址
+     * 带版本参数v且与当前ETag一致时长期缓存（版本变化后地址随之变化），否则每次重新验证
+     */
+    @GetMapping("/api/map/minimap/{tx}/{tz}.png")
+    @StatementBudget(2) // 首次访问构建瓦片索引和占用栅格
+    public ResponseEntity<?> getMinimapTile(
+            @PathVariable int tx, @PathVariable int tz,
+            @RequestParam(value = "v", required = false) String version,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch,
+            HttpSession session) {
+        String username = (String) session.getAttribute("loggedInUser");
+        if (username == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(createErrorResponse("未登录"));
+        }
+        String etag;
+        try {
+            etag = minimapTileService.tileETag(username, tx, tz);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(createErrorResponse(e.getMessage()));
+        }
+        String cacheControl = etag.equals(version)
+                ? "private, max-age=31536000, immutable"
+                : "private, no-cache";
+        if (etag.equals(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag)
+                    .header(HttpHeaders.CACHE_CONTROL, cacheControl).build();
+        }
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .header(HttpHeaders.CACHE_CONTROL, cacheControl)
+                .contentType(MediaType.IMAGE_PNG)
+                .body(minimapTileService.renderPng(username, tx, tz, etag));
+    }
+
     /**
      * 清理用户所有游戏数据（供前端关闭时调用）
      */
     @PostMapping("/api/game/clearAllData")
+    @StatementBudget(4) // 用户、cube、轨迹纪元、道具各一条，旧轨迹记录由后台删除
     @ResponseBody
     public ResponseEntity<?> clearAllUserData(
             @RequestHeader(value = "Authorization", required = false) String token) {
@@ -223,23 +405,65 @@ public class GameController {
         // 提取并验证token
         String tokenValue = token.substring(7);
         String username;
+        long start = System.nanoTime();
         try {
-            username = jwtTokenUtil.extractUsername(tokenValue);
-            if (!jwtTokenUtil.validateToken(tokenValue, username) || userService.findByUsername(username) == null) {
-                System.out.println("Token验证失败");
-                throw new RuntimeException("token验证失败");
-            }
+            // 已验证过的token直接返回缓存的用户名
+            username = verifiedTokenCache.verify(tokenValue);
         } catch (Exception e) {
+            tokenInvalidTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
             System.out.println("Token解析失败: " + e.getMessage());
             throw new RuntimeException("token解析失败: " + e.getMessage());
         }
+        tokenValidTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         return username;
     }
 
+    // 设置ETag并比较If-None-Match，一致时返回304
+    private boolean notModified(HttpServletResponse response, String etag, String ifNoneMatch) {
+        response.setHeader("ETag", etag);
+        // 每次使用前都要重新验证，浏览器自动携带If-None-Match
+        response.setHeader("Cache-Control", "no-cache");
+        if (etag.equals(ifNoneMatch)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+        return false;
+    }
+
+    // 输出列式二进制，客户端支持时gzip压缩
+    private void writeColumnar(HttpServletResponse response, String acceptEncoding, ColumnarBody body)
+            throws IOException {
+        response.setContentType("application/octet-stream");
+        response.setHeader("Vary", "Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            response.setHeader("Content-Encoding", "gzip");
+            try (GZIPOutputStream out = new GZIPOutputStream(response.getOutputStream(), 64 * 1024)) {
+                body.write(out);
+            }
+        } else {
+            OutputStream out = new BufferedOutputStream(response.getOutputStream(), 64 * 1024);
+            body.write(out);
+            out.flush();
+        }
+    }
+
+    // 直接写入响应的接口使用的JSON错误
+    private void writeError(HttpServletResponse response, int status, String message) throws IOException {
+        response.setStatus(status);
+        response.setContentType("application/json;charset=UTF-8");
+        response.getOutputStream().write(("{\"error\":\"" + message.replace("\"", "'") + "\"}")
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
     // 错误响应创建工具方法
     private Map<String, String> createErrorResponse(String message) {
         Map<String, String> error = new HashMap<>();
         error.put("error", message);
         return error;
     }
+
+    // 列式二进制响应体
+    private interface ColumnarBody {
+        long write(OutputStream out) throws IOException;
+    }
 }
\ No newline at end of file
@@ -41,6 +41,19 @@ public class Cube {
     private boolean timeExpired; // 时间是否已结束
     private boolean isPaused = false; // 新增：默认不暂停
 
+    // 计时截止时间（毫秒时间戳，不含暂停时长），剩余时间在读取时计算
+    @Column(name = "deadline_millis", columnDefinition = "bigint default 0")
+    private long deadlineMillis;
+    // 累计暂停时长（毫秒）
+    @Column(name = "paused_millis", columnDefinition = "bigint default 0")
+    private long pausedMillis;
+    // 本次暂停开始时间（毫秒时间戳），未暂停时为0
+    @Column(name = "paused_at_millis", columnDefinition = "bigint default 0")
+    private long pausedAtMillis;
+    // 下一次生成道具的时间（毫秒时间戳），0表示尚未安排；重启后据此恢复生成间隔
+    @Column(name = "next_prop_spawn_millis", columnDefinition = "bigint default 0")
+    private long nextPropSpawnMillis;
+
     public Cube() {
         this.position = new Position();
         this.cameraPosition = new Position(0, 30, 50);
@@ -55,6 +68,15 @@ public class Cube {
         this.size = size;
     }
 
+    // 复制位置、镜头、颜色、尺寸和渲染顺序（不含计时字段）
+    public void copyPlacementFrom(Cube other) {
+        this.position = other.position;
+        this.cameraPosition = other.cameraPosition;
+        this.color = other.color;
+        this.size = other.size;
+        this.renderOrder = other.renderOrder;
+    }
+
     // Getters and Setters
     public Long getId() { return id; }
     public void setId(Long id) { this.id = id; }
@@ -96,4 +118,39 @@ public class Cube {
     public void setPaused(boolean paused) {
         isPaused = paused;
     }
+
+    public long getDeadlineMillis() { return deadlineMillis; }
+    public void setDeadlineMillis(long deadlineMillis) { this.deadlineMillis = deadlineMillis; }
+    public long getPausedMillis() { return pausedMillis; }
+    public void setPausedMillis(long pausedMillis) { this.pausedMillis = pausedMillis; }
+    public long getPausedAtMillis() { return pausedAtMillis; }
+    public void setPausedAtMillis(long pausedAtMillis) { this.pausedAtMillis = pausedAtMillis; }
+
+    public long getNextPropSpawnMillis() { return nextPropSpawnMillis; }
+    public void setNextPropSpawnMillis(long nextPropSpawnMillis) { this.nextPropSpawnMillis = nextPropSpawnMillis; }
+
+    // 实际截止时间：截止时间顺延累计暂停时长，暂停中则再顺延本次暂停时长
+    public long computeEffectiveDeadline(long nowMillis) {
+        long deadline = deadlineMillis + pausedMillis;
+        if (isPaused && pausedAtMillis > 0) {
+            deadline += nowMillis - pausedAtMillis;
+        }
+        return deadline;
+    }
+
+    // 计算指定时刻的剩余毫秒数
+    public long computeRemainingMillis(long nowMillis) {
+        if (timeExpired) {
+            return 0;
+        }
+        if (deadlineMillis == 0) {
+            return remainingSeconds * 1000; // 尚未建立截止时间的旧存档
+        }
+        return Math.max(0, computeEffectiveDeadline(nowMillis) - nowMillis);
+    }
+
+    // 计算指定时刻的剩余秒数（向上取整）
+    public long computeRemainingSeconds(long nowMillis) {
+        return (computeRemainingMillis(nowMillis) + 999) / 1000;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,110 @@
+package org.example.dto;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.persistence.*;
+
+/**
+ * 游戏事件：类型 + 目标（用户名或主题）+ JSON负载
+ * 本地事件总线直接传递该对象；outbox事件总线把它写入game_event_outbox表，由各节点按ID顺序读取
+ */
+@Entity
+@Table(name = "game_event_outbox", indexes = {
+        @Index(name = "idx_game_event_created", columnList = "created_at_millis")
+})
+public class GameEvent {
+    // 事件类型
+    public static final String PROP_ADDED = "PROP_ADDED";
+    public static final String PROP_DELETED = "DELETE_PROP";
+    public static final String TOPIC = "TOPIC";
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // 发布事件的节点，节点读取outbox时跳过自己发布的事件
+    @Column(name = "node_id", nullable = false)
+    private String nodeId;
+
+    @Column(nullable = false)
+    private String type;
+
+    // 用户名；TOPIC事件为主题名
+    @Column(nullable = false)
+    private String target;
+
+    @Column(nullable = false, length = 4000)
+    private String payload;
+
+    @Column(name = "created_at_millis", nullable = false)
+    private long createdAtMillis;
+
+    public GameEvent() {}
+
+    public GameEvent(String type, String target, String payload) {
+        this.type = type;
+        this.target = target;
+        this.payload = payload;
+        this.createdAtMillis = System.currentTimeMillis();
+    }
+
+    // 负载对象序列化为JSON
+    public static GameEvent of(String type, String target, Object payload) {
+        try {
+            return new GameEvent(type, target, objectMapper.writeValueAsString(payload));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("游戏事件序列化失败", e);
+        }
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public void setTarget(String target) {
+        this.target = target;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+    public long getCreatedAtMillis() {
+        return createdAtMillis;
+    }
+
+    public void setCreatedAtMillis(long createdAtMillis) {
+        this.createdAtMillis = createdAtMillis;
+    }
+}
@@ -4,7 +4,9 @@ package org.example.dto;
 import javax.persistence.*;
 
 @Entity
-@Table(name = "user_map_data")
+@Table(name = "user_map_data", indexes = {
+        @Index(name = "idx_user_map_data_username", columnList = "username") // 按用户读取和清除旧纪元记录
+})
 public class MapData {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
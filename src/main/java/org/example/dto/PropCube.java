@@ -4,7 +4,7 @@ import javax.persistence.*;
 
 @Entity
 @Table(name = "game_prop_cube", uniqueConstraints = {
-        @UniqueConstraint(columnNames = "index") // 确保index不重复
+        @UniqueConstraint(columnNames = {"username", "index"}) // 同一用户的index不重复
 })
 public class PropCube {
     @Id
@@ -28,7 +28,7 @@ public class PropCube {
     @Column(name = "rotation_speed", nullable = false)
     private double rotationSpeed;
 
-    @Column(nullable = false, unique = true) // 唯一约束
+    @Column(nullable = false)
     private int index; // 象限索引
 
     @Column(name = "username", nullable = false)
@@ -15,6 +15,11 @@ public class User {
     @Column(nullable = false)
     private String password;
 
+    // 当前轨迹纪元的起点：ID不大于它的轨迹记录属于重置前的旧纪元，由后台分批清除
+    // 只通过UserRepository.startTrailEpoch批量更新，保存实体时不写回
+    @Column(name = "trail_epoch_start_id", nullable = false, updatable = false, columnDefinition = "bigint default 0")
+    private long trailEpochStartId;
+
     // 构造函数
     public User() {}
 
@@ -32,4 +37,6 @@ public class User {
 
     public String getPassword() { return password; }
     public void setPassword(String password) { this.password = password; }
+
+    public long getTrailEpochStartId() { return trailEpochStartId; }
 }
\ No newline at end of file
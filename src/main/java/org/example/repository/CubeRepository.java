@@ -2,7 +2,11 @@ package org.example.repository;
 
 import org.example.dto.Cube;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.Optional;
@@ -12,9 +16,29 @@ public interface CubeRepository extends JpaRepository<Cube, Long> {
     // 按用户名查询cube
     Optional<Cube> findByUsername(String username);
 
-    void deleteByUsername(String username);
+    // 批量删除，不逐个加载实体
+    @Modifying
+    @Transactional
+    @Query("delete from Cube c where c.username = :username")
+    int deleteByUsername(@Param("username") String username);
 
     boolean existsByUsername(String username);
 
     List<Cube> findAllByisPaused(boolean b);
+
+    // 只更新计时相关字段，不覆盖位置等其他字段
+    @Modifying
+    @Transactional
+    @Query("update Cube c set c.totalGameSeconds = :#{#cube.totalGameSeconds}, "
+            + "c.remainingSeconds = :#{#cube.remainingSeconds}, c.timeExpired = :#{#cube.timeExpired}, "
+            + "c.isPaused = :#{#cube.paused}, c.deadlineMillis = :#{#cube.deadlineMillis}, "
+            + "c.pausedMillis = :#{#cube.pausedMillis}, c.pausedAtMillis = :#{#cube.pausedAtMillis} "
+            + "where c.username = :#{#cube.username}")
+    int updateGameTime(@Param("cube") Cube cube);
+
+    // 保存下一次生成道具的时间
+    @Modifying
+    @Transactional
+    @Query("update Cube c set c.nextPropSpawnMillis = :millis where c.username = :username")
+    int updateNextPropSpawn(@Param("username") String username, @Param("millis") long millis);
 }
\ No newline at end of file
@@ -0,0 +1,27 @@
+package org.example.repository;
+
+import org.example.dto.GameEvent;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+@Repository
+public interface GameEventRepository extends JpaRepository<GameEvent, Long> {
+    // 按ID顺序读取一批新事件
+    List<GameEvent> findTop500ByIdGreaterThanOrderByIdAsc(Long id);
+
+    // 当前最大事件ID，节点启动时从这里开始读取
+    @Query("SELECT MAX(e.id) FROM GameEvent e")
+    Long findMaxId();
+
+    // 清理过期事件
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM GameEvent e WHERE e.createdAtMillis < :before")
+    int deleteCreatedBefore(@Param("before") long before);
+}
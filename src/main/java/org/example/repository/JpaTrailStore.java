@@ -0,0 +1,122 @@
+package org.example.repository;
+
+import org.example.dto.MapData;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 基于JPA的轨迹存储（每条印记一行user_map_data记录）
+ *
+ * 删除用户轨迹时只开始新的纪元（更新users表的一行），耗时与轨迹长度无关；
+ * 旧纪元的记录不再被读取，由purgeStale在后台分批删除
+ */
+@Component
+@ConditionalOnProperty(name = "game.trail.store", havingValue = "jpa", matchIfMissing = true)
+public class JpaTrailStore implements TrailStore {
+
+    private static final int DELETE_BATCH_SIZE = 1000;
+
+    private final MapDataRepository mapDataRepository;
+    private final UserRepository userRepository;
+    private final EntityManager entityManager;
+
+    @Autowired
+    public JpaTrailStore(MapDataRepository mapDataRepository, UserRepository userRepository,
+                         EntityManager entityManager) {
+        this.mapDataRepository = mapDataRepository;
+        this.userRepository = userRepository;
+        this.entityManager = entityManager;
+    }
+
+    @Override
+    public void append(MapData mapData) {
+        mapDataRepository.save(mapData);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void forEach(String username, Consumer<MapData> consumer) {
+        // 游标方式读取，读完一条即从持久化上下文中分离，避免整表驻留内存
+        try (Stream<MapData> stream = mapDataRepository.streamByUsernameOrderByIdAsc(username)) {
+            stream.forEach(mapData -> {
+                entityManager.detach(mapData);
+                consumer.accept(mapData);
+            });
+        }
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void forEachInRange(String username, double minX, double maxX, double minZ, double maxZ,
+                               Consumer<MapData> consumer) {
+        try (Stream<MapData> stream = mapDataRepository.streamInRange(username, minX, maxX, minZ, maxZ)) {
+            stream.forEach(mapData -> {
+                entityManager.detach(mapData);
+                consumer.accept(mapData);
+            });
+        }
+    }
+
+    // 默认实现内部调用forEach不经过代理，需要在这里声明只读事务
+    @Override
+    @Transactional(readOnly = true)
+    public List<MapData> findByUsername(String username) {
+        List<MapData> result = new ArrayList<>();
+        forEach(username, result::add);
+        return result;
+    }
+
+    @Override
+    @Transactional
+    public void removeAll(String username, Collection<MapData> records) {
+        List<Long> ids = records.stream()
+                .map(MapData::getId)
+                .collect(Collectors.toList());
+        // 分批删除，避免IN子句过长
+        for (int from = 0; from < ids.size(); from += DELETE_BATCH_SIZE) {
+            mapDataRepository.deleteAllByIdInBatch(ids.subList(from, Math.min(from + DELETE_BATCH_SIZE, ids.size())));
+        }
+    }
+
+    @Override
+    @Transactional
+    public void deleteByUsername(String username) {
+        userRepository.startTrailEpoch(username);
+    }
+
+    @Override
+    @Transactional
+    public int purgeStale(String username, int limit) {
+        List<Long> ids = mapDataRepository.findStaleIds(username, PageRequest.of(0, limit));
+        for (int from = 0; from < ids.size(); from += DELETE_BATCH_SIZE) {
+            mapDataRepository.deleteAllByIdInBatch(ids.subList(from, Math.min(from + DELETE_BATCH_SIZE, ids.size())));
+        }
+        return ids.size();
+    }
+
+    @Override
+    public List<String> usersWithStaleRecords() {
+        return mapDataRepository.findUsersWithStaleRecords();
+    }
+
+    @Override
+    public long count(String username) {
+        return mapDataRepository.countByUsername(username);
+    }
+
+    @Override
+    public long sizeInBytes(String username) {
+        return -1;
+    }
+}
@@ -2,17 +2,49 @@
 package org.example.repository;
 
 import org.example.dto.MapData;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+
+import javax.persistence.QueryHint;
 import java.util.List;
+import java.util.stream.Stream;
 
+/**
+ * 轨迹记录按纪元划分：用户重置时只推进纪元起点（见UserRepository.startTrailEpoch），
+ * 查询只返回ID大于起点的当前纪元记录，旧纪元记录由后台分批删除
+ */
 @Repository
 public interface MapDataRepository extends JpaRepository<MapData, Long> {
-    // 新增按用户名查询所有地图数据的方法
-    List<MapData> findByUsername(String username);
 
-    void deleteByUsername(String username);
+    String CURRENT_EPOCH = "m.id > coalesce((select u.trailEpochStartId from User u where u.username = :username), 0)";
+    String STALE_EPOCH = "m.id <= coalesce((select u.trailEpochStartId from User u where u.username = :username), 0)";
+
+    // 按ID升序以游标方式流式读取当前纪元的记录（需在事务内使用）
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("select m from MapData m where m.username = :username and " + CURRENT_EPOCH + " order by m.id")
+    Stream<MapData> streamByUsernameOrderByIdAsc(@Param("username") String username);
+
+    // 中心点落在指定范围内（左闭右开）的记录，按ID升序流式读取（需在事务内使用）
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("select m from MapData m where m.username = :username and " + CURRENT_EPOCH
+            + " and m.x >= :minX and m.x < :maxX and m.z >= :minZ and m.z < :maxZ order by m.id")
+    Stream<MapData> streamInRange(@Param("username") String username,
+                                  @Param("minX") double minX, @Param("maxX") double maxX,
+                                  @Param("minZ") double minZ, @Param("maxZ") double maxZ);
+
+    @Query("select count(m) from MapData m where m.username = :username and " + CURRENT_EPOCH)
+    long countByUsername(@Param("username") String username);
+
+    // 旧纪元记录的ID，按ID升序分批取
+    @Query("select m.id from MapData m where m.username = :username and " + STALE_EPOCH + " order by m.id")
+    List<Long> findStaleIds(@Param("username") String username, Pageable pageable);
 
-    // 新增：按用户名查询并按ID升序排列
-    List<MapData> findByUsernameOrderByIdAsc(String username);
+    // 还有旧纪元记录待清除的用户（启动时恢复清除任务）
+    @Query("select u.username from User u where u.trailEpochStartId > 0 and exists "
+            + "(select m.id from MapData m where m.username = u.username and m.id <= u.trailEpochStartId)")
+    List<String> findUsersWithStaleRecords();
 }
\ No newline at end of file
@@ -0,0 +1,431 @@
+package org.example.repository;
+
+import org.example.dto.MapData;
+import org.example.utils.ColorPalette;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * 基于内存映射文件的轨迹存储：每个用户一个只追加的二进制日志
+ *
+ * 文件头16字节：魔数(4) + 版本(4) + 记录数(8)
+ * 每条记录16字节：x(float) + z(float) + size(float) + 颜色索引(ushort) + 渲染顺序(ushort)
+ * 颜色字符串保存在同名的.palette文件中，每行一种颜色
+ *
+ * 记录ID由压缩代数（高32位）和记录位置（低32位，从1开始）组成。压缩和清空会移动或复用位置，
+ * 同时代数加1，之前读到的ID随之失效，removeAll忽略旧代数的ID，不会误删移动到该位置的其他记录。
+ * 读取在读锁内完成，压缩和清空持有写锁；追加只写入读取区间之后的位置，不需要等待读取结束
+ *
+ * 用户的轨迹文件不存在时，先把user_map_data表中当前纪元的记录一次性导入，从jpa存储升级时不丢轨迹。
+ * 导入先写到临时文件，完成后再移动到正式文件名，中途失败下次打开时重新导入；表中的旧记录保留，可随时切回jpa
+ */
+@Component
+@ConditionalOnProperty(name = "game.trail.store", havingValue = "mapped")
+public class MappedTrailStore implements TrailStore {
+
+    private static final int MAGIC = 0x54524C31; // "TRL1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int COUNT_OFFSET = 8;
+    static final int RECORD_SIZE = 16;
+    // 每次扩容映射的记录数
+    private static final int GROW_RECORDS = 64 * 1024;
+
+    private final Path baseDir;
+    private final Map<String, UserTrail> trails = new ConcurrentHashMap<>();
+    private final MapDataRepository mapDataRepository;
+    private final TransactionTemplate readOnlyTransaction;
+
+    public MappedTrailStore(@Value("${game.trail.dir:./data/trails}") String dir,
+                            MapDataRepository mapDataRepository,
+                            PlatformTransactionManager transactionManager) throws IOException {
+        this.baseDir = Paths.get(dir);
+        this.mapDataRepository = mapDataRepository;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        Files.createDirectories(baseDir);
+    }
+
+    @Override
+    public void append(MapData mapData) {
+        UserTrail trail = trail(mapData.getUsername());
+        synchronized (trail) {
+            trail.append(mapData);
+        }
+    }
+
+    @Override
+    public void forEach(String username, Consumer<MapData> consumer) {
+        UserTrail trail = trail(username);
+        // 读锁阻止压缩移动记录；在监视器内截取当前可见区间，之后的追加不影响本次读取
+        trail.rewriteLock.readLock().lock();
+        try {
+            ByteBuffer view;
+            String[] colors;
+            long generation;
+            synchronized (trail) {
+                view = trail.records();
+                colors = trail.colors();
+                generation = trail.generation;
+            }
+            int count = view.remaining() / RECORD_SIZE;
+            for (int i = 0; i < count; i++) {
+                MapData mapData = new MapData(username,
+                        view.getFloat(), view.getFloat(), null, view.getFloat());
+                mapData.setColor(colors[Short.toUnsignedInt(view.getShort())]);
+                mapData.setRenderOrder(Short.toUnsignedInt(view.getShort()));
+                mapData.setId(recordId(generation, i));
+                consumer.accept(mapData);
+            }
+        } finally {
+            trail.rewriteLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void forEachInRange(String username, double minX, double maxX, double minZ, double maxZ,
+                               Consumer<MapData> consumer) {
+        UserTrail trail = trail(username);
+        trail.rewriteLock.readLock().lock();
+        try {
+            ByteBuffer view;
+            String[] colors;
+            long generation;
+            synchronized (trail) {
+                view = trail.records();
+                colors = trail.colors();
+                generation = trail.generation;
+            }
+            // 先按坐标过滤再解码，范围外的记录不创建对象
+            int count = view.remaining() / RECORD_SIZE;
+            for (int i = 0; i < count; i++) {
+                int position = i * RECORD_SIZE;
+                float x = view.getFloat(position);
+                float z = view.getFloat(position + 4);
+                if (x < minX || x >= maxX || z < minZ || z >= maxZ) {
+                    continue;
+                }
+                MapData mapData = new MapData(username, x, z, null, view.getFloat(position + 8));
+                mapData.setColor(colors[Short.toUnsignedInt(view.getShort(position + 12))]);
+                mapData.setRenderOrder(Short.toUnsignedInt(view.getShort(position + 14)));
+                mapData.setId(recordId(generation, i));
+                consumer.accept(mapData);
+            }
+        } finally {
+            trail.rewriteLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(String username, Collection<MapData> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        UserTrail trail = trail(username);
+        trail.rewriteLock.writeLock().lock();
+        try {
+            synchronized (trail) {
+                // 只删除当前代数的记录；旧代数的ID可能已指向其他记录，忽略（下次清理会重新计算）
+                Set<Long> positions = new HashSet<>();
+                for (MapData record : records) {
+                    long id = record.getId();
+                    if (id >>> 32 == trail.generation) {
+                        positions.add((id & 0xFFFFFFFFL) - 1);
+                    }
+                }
+                if (!positions.isEmpty()) {
+                    trail.compact(positions);
+                }
+            }
+        } finally {
+            trail.rewriteLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteByUsername(String username) {
+        UserTrail trail = trail(username);
+        trail.rewriteLock.writeLock().lock();
+        try {
+            synchronized (trail) {
+                trail.truncate();
+            }
+        } finally {
+            trail.rewriteLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public long count(String username) {
+        UserTrail trail = trail(username);
+        synchronized (trail) {
+            return trail.count;
+        }
+    }
+
+    @Override
+    public long sizeInBytes(String username) {
+        UserTrail trail = trail(username);
+        synchronized (trail) {
+            return HEADER_SIZE + trail.count * RECORD_SIZE + trail.paletteBytes;
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        for (UserTrail trail : trails.values()) {
+            synchronized (trail) {
+                trail.close();
+            }
+        }
+        trails.clear();
+    }
+
+    private UserTrail trail(String username) {
+        return trails.computeIfAbsent(username, name -> {
+            String fileName = fileName(name);
+            try {
+                if (!Files.exists(baseDir.resolve(fileName + ".trail"))) {
+                    importFromTable(name, fileName);
+                }
+                return new UserTrail(baseDir, fileName);
+            } catch (IOException e) {
+                throw new UncheckedIOException("打开轨迹文件失败: " + name, e);
+            }
+        });
+    }
+
+    // 把user_map_data表中当前纪元的记录导入新的轨迹文件
+    private void importFromTable(String username, String fileName) throws IOException {
+        String stagingName = fileName + ".importing";
+        Path stagingTrail = baseDir.resolve(stagingName + ".trail");
+        Path stagingPalette = baseDir.resolve(stagingName + ".palette");
+        // 清掉上次中断留下的临时文件
+        Files.deleteIfExists(stagingTrail);
+        Files.deleteIfExists(stagingPalette);
+
+        UserTrail staging = new UserTrail(baseDir, stagingName);
+        long[] counts = new long[2]; // 导入数, 跳过数
+        try {
+            readOnlyTransaction.execute(status -> {
+                try (Stream<MapData> stream = mapDataRepository.streamByUsernameOrderByIdAsc(username)) {
+                    stream.forEach(entity -> {
+                        // 旧数据中不合法的颜色无法写入调色板，跳过
+                        if (!ColorPalette.isValidColor(entity.getColor())) {
+                            counts[1]++;
+                            return;
+                        }
+                        // 复制一份再追加，append会改写ID，不能动受管实体
+                        MapData copy = new MapData(username, entity.getX(), entity.getZ(),
+                                entity.getColor(), entity.getSize());
+                        copy.setRenderOrder(entity.getRenderOrder());
+                        staging.append(copy);
+                        counts[0]++;
+                    });
+                }
+                return null;
+            });
+        } finally {
+            staging.close();
+        }
+
+        // 先移动调色板，轨迹文件最后就位，作为导入完成的标志
+        if (Files.exists(stagingPalette)) {
+            Files.move(stagingPalette, baseDir.resolve(fileName + ".palette"), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.deleteIfExists(baseDir.resolve(fileName + ".palette"));
+        }
+        Files.move(stagingTrail, baseDir.resolve(fileName + ".trail"), StandardCopyOption.REPLACE_EXISTING);
+        if (counts[0] > 0 || counts[1] > 0) {
+            System.out.println("从user_map_data导入轨迹: " + username + " 导入" + counts[0] + "条，跳过" + counts[1] + "条");
+        }
+    }
+
+    private static long recordId(long generation, long position) {
+        return generation << 32 | (position + 1);
+    }
+
+    // 用户名转为十六进制作为文件名，避免非法字符
+    private static String fileName(String username) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : username.getBytes(StandardCharsets.UTF_8)) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 单个用户的轨迹文件，所有方法由调用方在该对象上同步；压缩和清空还需持有rewriteLock的写锁
+     */
+    private static class UserTrail {
+        private final ReadWriteLock rewriteLock = new ReentrantReadWriteLock();
+        private final FileChannel channel;
+        private final Path palettePath;
+        private final ColorPalette palette = new ColorPalette();
+        private MappedByteBuffer buffer;
+        private long count;
+        private long paletteBytes;
+        // 压缩代数，记录位置变化时加1（只在内存中，重启后读到的ID都是新的）
+        private long generation;
+
+        UserTrail(Path dir, String name) throws IOException {
+            this.palettePath = dir.resolve(name + ".palette");
+            this.channel = FileChannel.open(dir.resolve(name + ".trail"),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            boolean fresh = channel.size() < HEADER_SIZE;
+            map(Math.max(channel.size(), HEADER_SIZE + (long) GROW_RECORDS * RECORD_SIZE));
+            if (fresh) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putLong(COUNT_OFFSET, 0);
+            } else if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("轨迹文件格式错误");
+            }
+            count = buffer.getLong(COUNT_OFFSET);
+
+            if (Files.exists(palettePath)) {
+                List<String> lines = Files.readAllLines(palettePath, StandardCharsets.UTF_8);
+                for (String color : lines) {
+                    palette.getOrAdd(color);
+                }
+                paletteBytes = Files.size(palettePath);
+            }
+        }
+
+        void append(MapData mapData) {
+            int colorIndex = colorIndex(mapData.getColor());
+            long offset = HEADER_SIZE + count * RECORD_SIZE;
+            if (offset + RECORD_SIZE > buffer.capacity()) {
+                map(buffer.capacity() + (long) GROW_RECORDS * RECORD_SIZE);
+            }
+            int position = (int) offset;
+            buffer.putFloat(position, (float) mapData.getX());
+            buffer.putFloat(position + 4, (float) mapData.getZ());
+            buffer.putFloat(position + 8, (float) mapData.getSize());
+            buffer.putShort(position + 12, (short) colorIndex);
+            buffer.putShort(position + 14, (short) mapData.getRenderOrder());
+            // 记录写完后再更新记录数，保证文件头只指向完整记录
+            count++;
+            buffer.putLong(COUNT_OFFSET, count);
+            mapData.setId(recordId(generation, count - 1));
+        }
+
+        // 当前所有有效记录的只读视图
+        ByteBuffer records() {
+            ByteBuffer view = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+            view.position(HEADER_SIZE);
+            view.limit(HEADER_SIZE + (int) (count * RECORD_SIZE));
+            return view.slice();
+        }
+
+        String[] colors() {
+            String[] colors = new String[palette.size()];
+            for (int i = 0; i < colors.length; i++) {
+                colors[i] = palette.colorAt(i);
+            }
+            return colors;
+        }
+
+        // 原地压缩：跳过被删除的记录（按位置，从0开始），后面的记录前移
+        void compact(Set<Long> removedPositions) {
+            long write = 0;
+            byte[] record = new byte[RECORD_SIZE];
+            for (long read = 0; read < count; read++) {
+                if (removedPositions.contains(read)) {
+                    continue;
+                }
+                if (write != read) {
+                    buffer.position((int) (HEADER_SIZE + read * RECORD_SIZE));
+                    buffer.get(record);
+                    buffer.position((int) (HEADER_SIZE + write * RECORD_SIZE));
+                    buffer.put(record);
+                }
+                write++;
+            }
+            count = write;
+            buffer.putLong(COUNT_OFFSET, count);
+            generation++;
+        }
+
+        void truncate() {
+            count = 0;
+            generation++;
+            buffer.putLong(COUNT_OFFSET, 0);
+            palette.clear();
+            paletteBytes = 0;
+            try {
+                Files.deleteIfExists(palettePath);
+            } catch (IOException e) {
+                throw new UncheckedIOException("删除调色板文件失败", e);
+            }
+        }
+
+        void close() {
+            try {
+                buffer.force();
+                channel.close();
+            } catch (IOException e) {
+                System.out.println("关闭轨迹文件失败: " + e.getMessage());
+            }
+        }
+
+        private int colorIndex(String color) {
+            int index = palette.indexOf(color);
+            if (index >= 0) {
+                return index;
+            }
+            // 调色板文件按行存储，带换行的颜色会让重启后的索引错位
+            if (!ColorPalette.isValidColor(color)) {
+                throw new IllegalArgumentException("颜色格式错误: " + color);
+            }
+            index = palette.getOrAdd(color);
+            // 新颜色追加写入调色板文件
+            String line = color + System.lineSeparator();
+            try (BufferedWriter writer = Files.newBufferedWriter(palettePath, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                writer.write(line);
+            } catch (IOException e) {
+                throw new UncheckedIOException("写入调色板文件失败", e);
+            }
+            paletteBytes += line.getBytes(StandardCharsets.UTF_8).length;
+            return index;
+        }
+
+        private void map(long size) {
+            try {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } catch (IOException e) {
+                throw new UncheckedIOException("映射轨迹文件失败", e);
+            }
+        }
+    }
+}
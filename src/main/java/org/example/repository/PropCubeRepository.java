@@ -2,7 +2,11 @@ package org.example.repository;
 
 import org.example.dto.PropCube;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.Optional;
@@ -15,13 +19,13 @@ public interface PropCubeRepository extends JpaRepository<PropCube, Long> {
     // 根据ID和用户名查询道具Cube（权限验证）
     Optional<PropCube> findByIdAndUsername(Long id, String username);
 
-    // 删除用户所有道具Cube
-    void deleteByUsername(String username);
+    // 删除用户所有道具Cube（批量删除，不逐个加载实体）
+    @Modifying
+    @Transactional
+    @Query("delete from PropCube p where p.username = :username")
+    int deleteByUsername(@Param("username") String username);
 
     // 根据索引和用户名查询（用于删除权限校验）
     Optional<PropCube> findByIndexAndUsername(int index, String username);
 
-    // 检查索引是否已存在（跨用户唯一）
-    boolean existsByIndex(int index);
-
 }
\ No newline at end of file
@@ -0,0 +1,62 @@
+package org.example.repository;
+
+import org.example.dto.MapData;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 轨迹（地图印记）存储引擎
+ * 通过配置项 game.trail.store 选择实现：mapped（二进制追加日志）或 jpa（user_map_data表）
+ */
+public interface TrailStore {
+
+    // 追加一条轨迹记录
+    void append(MapData mapData);
+
+    // 按写入顺序（ID升序）逐条读取用户的轨迹记录
+    void forEach(String username, Consumer<MapData> consumer);
+
+    // 按写入顺序逐条读取中心点落在指定范围内（左闭右开）的轨迹记录
+    default void forEachInRange(String username, double minX, double maxX, double minZ, double maxZ,
+                                Consumer<MapData> consumer) {
+        forEach(username, mapData -> {
+            if (mapData.getX() >= minX && mapData.getX() < maxX && mapData.getZ() >= minZ && mapData.getZ() < maxZ) {
+                consumer.accept(mapData);
+            }
+        });
+    }
+
+    // 按ID删除指定的轨迹记录
+    void removeAll(String username, Collection<MapData> records);
+
+    // 删除用户的所有轨迹记录；实现可以只做逻辑删除，之后由purgeStale分批物理删除
+    void deleteByUsername(String username);
+
+    // 物理删除用户已被逻辑删除的记录，最多limit条，返回删除的条数
+    default int purgeStale(String username, int limit) {
+        return 0;
+    }
+
+    // 还有逻辑删除记录待清除的用户
+    default List<String> usersWithStaleRecords() {
+        return Collections.emptyList();
+    }
+
+    // 用户的轨迹记录数
+    long count(String username);
+
+    // 用户轨迹占用的磁盘字节数，无法统计时返回-1
+    long sizeInBytes(String username);
+
+    // 读取用户的所有轨迹记录（ID升序）
+    // 默认实现直接调用本对象的forEach，不经过Spring代理；forEach需要事务的实现必须覆盖本方法并声明事务
+    default List<MapData> findByUsername(String username) {
+        List<MapData> result = new ArrayList<>();
+        forEach(username, result::add);
+        return result;
+    }
+}
@@ -2,9 +2,21 @@ package org.example.repository;
 
 import org.example.dto.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
 import java.util.Optional;
 
 public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByUsername(String username);
     boolean existsByUsername(String username);
+
+    // 开始新的轨迹纪元：起点取当前最大的轨迹记录ID，之前写入的记录全部视为旧纪元
+    @Modifying
+    @Transactional
+    @Query("update User u set u.trailEpochStartId = (select coalesce(max(m.id), 0) from MapData m) "
+            + "where u.username = :username")
+    int startTrailEpoch(@Param("username") String username);
 }
\ No newline at end of file
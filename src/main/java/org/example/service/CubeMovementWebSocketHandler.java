@@ -0,0 +1,145 @@
+package org.example.service;
+
+import org.example.config.JwtHandshakeInterceptor;
+import org.example.dto.Cube;
+import org.example.dto.Position;
+import org.example.utils.ColorPalette;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.BinaryWebSocketHandler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 立方体移动的二进制上报通道，替代每帧一次的POST /api/cube/save
+ *
+ * 客户端 -> 服务器（大端）：
+ *   COLOR(0x01)：类型(1) + 颜色索引(2) + 颜色字符串(UTF-8，"#RGB"或"#RRGGBB")，为本连接登记颜色，
+ *               每个连接最多登记MAX_COLORS个索引，格式错误或超出上限时关闭连接
+ *   MOVE(0x02)：类型(1) + 序号(4) + 位置xyz(3*4 float) + 镜头xyz(3*4 float) + 尺寸(4 float)
+ *               + 颜色索引(2) + 渲染顺序(2)，共37字节
+ * 服务器 -> 客户端：
+ *   ACK(0x81)：类型(1) + 已处理的序号(4)
+ *   ERROR(0x82)：类型(1) + 序号(4) + 错误信息(UTF-8)
+ */
+@Component
+public class CubeMovementWebSocketHandler extends BinaryWebSocketHandler {
+    static final byte COLOR = 0x01;
+    static final byte MOVE = 0x02;
+    static final byte ACK = (byte) 0x81;
+    static final byte ERROR = (byte) 0x82;
+    static final int MOVE_FRAME_SIZE = 37;
+    // 每个连接最多登记的颜色索引数，客户端重连后颜色表重新开始
+    static final int MAX_COLORS = 256;
+    // 最长的合法颜色"#RRGGBB"
+    private static final int MAX_COLOR_BYTES = 7;
+
+    // 会话属性：本连接登记的颜色表、最近处理的序号
+    private static final String COLORS_ATTRIBUTE = "cubeColors";
+    private static final String SEQ_ATTRIBUTE = "cubeSeq";
+
+    @Autowired
+    private CubeService cubeService;
+
+    @Autowired
+    private WebSocketOutbound outbound;
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        session.getAttributes().put(COLORS_ATTRIBUTE, new HashMap<Integer, String>());
+        session.getAttributes().put(SEQ_ATTRIBUTE, -1L);
+        outbound.register(session);
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        outbound.unregister(session);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) throws IOException {
+        ByteBuffer frame = message.getPayload();
+        if (!frame.hasRemaining()) {
+            session.close(CloseStatus.BAD_DATA);
+            return;
+        }
+        Map<Integer, String> colors = (Map<Integer, String>) session.getAttributes().get(COLORS_ATTRIBUTE);
+
+        byte type = frame.get();
+        if (type == COLOR && frame.remaining() >= 2 && frame.remaining() <= 2 + MAX_COLOR_BYTES) {
+            int index = Short.toUnsignedInt(frame.getShort());
+            byte[] bytes = new byte[frame.remaining()];
+            frame.get(bytes);
+            String color = new String(bytes, StandardCharsets.UTF_8);
+            if (!ColorPalette.isValidColor(color)) {
+                session.close(CloseStatus.BAD_DATA);
+                return;
+            }
+            if (colors.size() >= MAX_COLORS && !colors.containsKey(index)) {
+                session.close(CloseStatus.POLICY_VIOLATION);
+                return;
+            }
+            colors.put(index, color);
+        } else if (type == MOVE && frame.remaining() == MOVE_FRAME_SIZE - 1) {
+            handleMove(session, frame, colors);
+        } else {
+            session.close(CloseStatus.BAD_DATA);
+        }
+    }
+
+    private void handleMove(WebSocketSession session, ByteBuffer frame, Map<Integer, String> colors) throws IOException {
+        long seq = Integer.toUnsignedLong(frame.getInt());
+        // 同一连接内的序号只增不减，重复或过期的帧直接丢弃
+        if (seq <= (Long) session.getAttributes().get(SEQ_ATTRIBUTE)) {
+            return;
+        }
+        session.getAttributes().put(SEQ_ATTRIBUTE, seq);
+
+        Position position = new Position(frame.getFloat(), frame.getFloat(), frame.getFloat());
+        Position cameraPosition = new Position(frame.getFloat(), frame.getFloat(), frame.getFloat());
+        float size = frame.getFloat();
+        String color = colors.get(Short.toUnsignedInt(frame.getShort()));
+        int renderOrder = Short.toUnsignedInt(frame.getShort());
+        if (color == null) {
+            sendError(session, seq, "颜色索引未登记");
+            return;
+        }
+
+        String username = (String) session.getAttributes().get(JwtHandshakeInterceptor.USERNAME_ATTRIBUTE);
+        Cube cube = new Cube(position, cameraPosition, color, 0);
+        cube.setSize(size);
+        cube.setRenderOrder(renderOrder);
+        cube.setUsername(username);
+        try {
+            // 与POST /api/cube/save相同的保存逻辑
+            cubeService.saveUserCube(cube);
+        } catch (RuntimeException e) {
+            System.out.println("保存失败: " + e.getMessage());
+            sendError(session, seq, "保存失败: " + e.getMessage());
+            return;
+        }
+        sendAck(session, seq);
+    }
+
+    // 确认只需保留最新序号，排队中的旧确认被替换
+    private void sendAck(WebSocketSession session, long seq) {
+        ByteBuffer ack = ByteBuffer.allocate(5);
+        ack.put(ACK).putInt((int) seq).flip();
+        outbound.send(session, new BinaryMessage(ack), "ACK");
+    }
+
+    private void sendError(WebSocketSession session, long seq, String error) {
+        byte[] text = error.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(5 + text.length);
+        frame.put(ERROR).putInt((int) seq).put(text).flip();
+        outbound.send(session, new BinaryMessage(frame));
+    }
+}
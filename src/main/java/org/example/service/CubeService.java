@@ -1,30 +1,47 @@
 // CubeService.java
 package org.example.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.example.dto.Cube;
 import org.example.dto.Position;
 import org.example.repository.CubeRepository;
+import org.example.utils.ColorPalette;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class CubeService {
 
     private final CubeRepository cubeRepository;
     private final MapDataService mapDataService;  // 注入MapDataService
+    private final CubeWriteBehindService cubeWriteBehindService;
+    private final UserStateCache userStateCache;
+    private final Timer saveTimer;
 
     @Autowired
-    public CubeService(CubeRepository cubeRepository, MapDataService mapDataService) {  // 修改构造函数
+    public CubeService(CubeRepository cubeRepository, MapDataService mapDataService,
+                       CubeWriteBehindService cubeWriteBehindService, UserStateCache userStateCache,
+                       MeterRegistry meterRegistry) {  // 修改构造函数
         this.cubeRepository = cubeRepository;
         this.mapDataService = mapDataService;  // 初始化
+        this.cubeWriteBehindService = cubeWriteBehindService;
+        this.userStateCache = userStateCache;
+        this.saveTimer = Timer.builder("game.cube.save")
+                .description("保存立方体位置（含地图数据更新）")
+                .register(meterRegistry);
     }
 
-    // 根据用户名获取用户的cube配置
+    // 根据用户名获取用户的cube配置（优先读缓存，叠加尚未写入数据库的最新位置）
     public Cube getCubeByUsername(String username) {
-        return cubeRepository.findByUsername(username)
-                .orElseGet(() -> createDefaultCubeForUser(username));
+        Cube cube = userStateCache.getCube(username, name -> cubeRepository.findByUsername(name)
+                .orElseGet(() -> createDefaultCubeForUser(name)));
+        cubeWriteBehindService.markPersisted(username);
+        return cubeWriteBehindService.applyPending(cube);
     }
 
     // 为新用户创建默认cube配置
@@ -37,29 +54,44 @@ public class CubeService {
     }
 
     // 保存或更新用户的cube配置，并通过MapDataService更新地图数据
+    // 位置更新交给写回缓冲合并后批量落库，不再每帧查询+保存
     public Cube saveUserCube(Cube updatedCube) {
         String username = updatedCube.getUsername();
         if (username == null || username.isEmpty()) {
             throw new IllegalArgumentException("用户名不能为空");
         }
+        // 颜色会写入轨迹调色板，格式不合法直接拒绝
+        if (!ColorPalette.isValidColor(updatedCube.getColor())) {
+            throw new IllegalArgumentException("颜色格式错误，应为#RGB或#RRGGBB");
+        }
+
+        long start = System.nanoTime();
+        try {
+            return saveUserCube(username, updatedCube);
+        } finally {
+            saveTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
 
-        // 1. 先查询该用户是否已有Cube记录
-        Cube savedCube = cubeRepository.findByUsername(username)
-                .map(existingCube -> {
-                    // 2. 若存在，更新字段
-                    existingCube.setPosition(updatedCube.getPosition());
-                    existingCube.setCameraPosition(updatedCube.getCameraPosition());
-                    existingCube.setColor(updatedCube.getColor());
-                    existingCube.setSize(updatedCube.getSize());
-                    existingCube.setRenderOrder(updatedCube.getRenderOrder()); // 更新渲染顺序
-                    return cubeRepository.save(existingCube);
-                })
-                .orElseGet(() -> {
-                    // 3. 若不存在，直接创建新记录
-                    Cube newCube = createDefaultCubeForUser(username);
-                    newCube.setRenderOrder(0); // 设置默认渲染顺序
-                    return newCube;
-                });
+    private Cube saveUserCube(String username, Cube updatedCube) {
+        Cube savedCube;
+        if (cubeWriteBehindService.isPersisted(username) || cubeRepository.existsByUsername(username)) {
+            // 1. 已有Cube记录，合并到写回缓冲
+            cubeWriteBehindService.markPersisted(username);
+            cubeWriteBehindService.enqueue(updatedCube);
+            // 写穿到缓存中的cube
+            Cube cached = userStateCache.peekCube(username);
+            if (cached != null) {
+                cached.copyPlacementFrom(updatedCube);
+            }
+            savedCube = updatedCube;
+        } else {
+            // 2. 若不存在，直接创建新记录
+            savedCube = createDefaultCubeForUser(username);
+            savedCube.setRenderOrder(0); // 设置默认渲染顺序
+            cubeWriteBehindService.markPersisted(username);
+            userStateCache.putCube(savedCube);
+        }
 
         // 通过MapDataService更新地图数据
         mapDataService.updateMapData(savedCube);
@@ -67,47 +99,54 @@ public class CubeService {
         return savedCube;
     }
 
+    // 保存用户的计时状态（只更新计时字段，不再附带写入地图数据）
     public Cube saveUserTime(Cube updatedCube) {
         String username = updatedCube.getUsername();
         if (username == null || username.isEmpty()) {
             throw new IllegalArgumentException("用户名不能为空");
         }
 
-        // 1. 先查询该用户是否已有Cube记录
-        Cube savedCube = cubeRepository.findByUsername(username)
-                .map(existingCube -> {
-                    // 2. 若存在，更新字段
-                    existingCube.setTotalGameSeconds(updatedCube.getTotalGameSeconds());
-                    existingCube.setRemainingSeconds(updatedCube.getRemainingSeconds());
-                    existingCube.setTimeExpired(updatedCube.isTimeExpired()); // 更新是否过期
-                    existingCube.setPaused(updatedCube.isPaused());
-                    return cubeRepository.save(existingCube);
-                })
-                .orElseGet(() -> {
-                    // 3. 若不存在，直接创建新记录
-                    Cube newCube = createDefaultCubeForUser(username);
-                    newCube.setRenderOrder(0); // 设置默认渲染顺序
-                    return newCube;
-                });
+        // 1. 直接按用户名更新计时字段
+        if (cubeRepository.updateGameTime(updatedCube) > 0) {
+            // 修改的不是缓存中的对象时清除缓存，下次读取重新加载
+            if (userStateCache.peekCube(username) != updatedCube) {
+                userStateCache.evictCube(username);
+            }
+            return updatedCube;
+        }
 
-        // 通过MapDataService更新地图数据
-        mapDataService.updateMapData(savedCube);
+        // 2. 若不存在，创建默认记录后写入计时字段
+        Cube newCube = createDefaultCubeForUser(username);
+        newCube.setRenderOrder(0); // 设置默认渲染顺序
+        cubeRepository.updateGameTime(updatedCube);
+        cubeWriteBehindService.markPersisted(username);
+        userStateCache.evictCube(username);
+        return newCube;
+    }
 
-        return savedCube;
+    // 保存下一次生成道具的时间，同时更新缓存中的cube
+    public void saveNextPropSpawn(String username, long millis) {
+        cubeRepository.updateNextPropSpawn(username, millis);
+        Cube cached = userStateCache.peekCube(username);
+        if (cached != null) {
+            cached.setNextPropSpawnMillis(millis);
+        }
     }
 
     public boolean existsByUsername(String username) {
-        // 先检查用户是否存在cube记录
-        if (!cubeRepository.existsByUsername(username)) {
-            return false;
+        // 先查缓存，未命中时查询一次并放入缓存
+        Cube cube = userStateCache.peekCube(username);
+        if (cube == null) {
+            Optional<Cube> stored = cubeRepository.findByUsername(username);
+            if (!stored.isPresent()) {
+                return false;
+            }
+            cube = stored.get();
+            userStateCache.putCube(cube);
         }
 
-        // 获取用户的cube信息
-        Cube cube = cubeRepository.findByUsername(username)
-                .orElseThrow(() -> new RuntimeException("用户cube记录不存在"));
-
         // 当mapdata无数据且时间未变化时返回false，其他情况返回true
-        return cube.getRemainingSeconds() != cube.getTotalGameSeconds();
+        return cube.computeRemainingSeconds(System.currentTimeMillis()) != cube.getTotalGameSeconds();
     }
 
     public List<Cube> findAllActiveGames() {
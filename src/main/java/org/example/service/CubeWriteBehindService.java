@@ -0,0 +1,189 @@
+package org.example.service;
+
+import org.example.dto.Cube;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 立方体位置的写回（write-behind）缓冲：
+ * 同一用户的多次位置更新在内存中合并，只保留最新状态，
+ * 按固定间隔或达到数量阈值时通过JDBC批量写入game_cube表
+ */
+@Service
+public class CubeWriteBehindService {
+
+    private static final String UPDATE_SQL = "UPDATE game_cube SET cube_x = ?, cube_y = ?, cube_z = ?, "
+            + "camera_x = ?, camera_y = ?, camera_z = ?, color = ?, size = ?, render_order = ? "
+            + "WHERE username = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // 待写入的最新状态，key为用户名
+    private final Map<String, Cube> pending = new ConcurrentHashMap<>();
+    // 已确认在数据库中存在cube记录的用户
+    private final Set<String> persistedUsers = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    // 指标：写入条数、刷新次数、最近/最大刷新耗时
+    private final AtomicLong flushedRows = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong lastFlushNanos = new AtomicLong();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+
+    @Value("${game.cube.write-behind.flush-threshold:500}")
+    private int flushThreshold;
+
+    @Autowired
+    public CubeWriteBehindService(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * 记录用户最新的立方体状态，覆盖尚未写入的旧状态
+     */
+    public void enqueue(Cube cube) {
+        pending.put(cube.getUsername(), cube);
+        if (pending.size() >= flushThreshold && flushLock.tryLock()) {
+            try {
+                flushPending();
+            } finally {
+                flushLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 将尚未写入的最新状态覆盖到从数据库读取的cube上
+     */
+    public Cube applyPending(Cube cube) {
+        Cube latest = pending.get(cube.getUsername());
+        if (latest != null) {
+            cube.copyPlacementFrom(latest);
+        }
+        return cube;
+    }
+
+    public boolean isPersisted(String username) {
+        return persistedUsers.contains(username);
+    }
+
+    public void markPersisted(String username) {
+        persistedUsers.add(username);
+    }
+
+    /**
+     * 丢弃用户尚未写入的状态（用户数据被删除时调用）
+     */
+    public void discard(String username) {
+        persistedUsers.remove(username);
+        pending.remove(username);
+    }
+
+    // 定时批量写入
+    @Scheduled(fixedDelayString = "${game.cube.write-behind.flush-interval-ms:200}")
+    public void flush() {
+        flushLock.lock();
+        try {
+            flushPending();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // 关闭前确保所有状态都已落库
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private void flushPending() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+
+        List<Cube> batch = new ArrayList<>(pending.size());
+        for (String username : pending.keySet()) {
+            Cube cube = pending.remove(username);
+            if (cube != null) {
+                batch.add(cube);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            writeBatch(batch);
+        } catch (RuntimeException e) {
+            // 写入失败时放回缓冲区等待下次刷新；期间已有更新的位置以新的为准，已删除数据的用户不再放回
+            for (Cube cube : batch) {
+                if (persistedUsers.contains(cube.getUsername())) {
+                    pending.putIfAbsent(cube.getUsername(), cube);
+                }
+            }
+            failedFlushes.incrementAndGet();
+            System.out.println("立方体位置批量写入失败，" + batch.size() + "条已放回缓冲区: " + e.getMessage());
+            return;
+        }
+
+        long elapsed = System.nanoTime() - start;
+        flushedRows.addAndGet(batch.size());
+        flushCount.incrementAndGet();
+        lastFlushNanos.set(elapsed);
+        maxFlushNanos.accumulateAndGet(elapsed, Math::max);
+    }
+
+    private void writeBatch(List<Cube> batch) {
+        jdbcTemplate.batchUpdate(UPDATE_SQL, batch, batch.size(), (ps, cube) -> {
+            ps.setDouble(1, cube.getPosition().getX());
+            ps.setDouble(2, cube.getPosition().getY());
+            ps.setDouble(3, cube.getPosition().getZ());
+            ps.setDouble(4, cube.getCameraPosition().getX());
+            ps.setDouble(5, cube.getCameraPosition().getY());
+            ps.setDouble(6, cube.getCameraPosition().getZ());
+            ps.setString(7, cube.getColor());
+            ps.setDouble(8, cube.getSize());
+            ps.setInt(9, cube.getRenderOrder());
+            ps.setString(10, cube.getUsername());
+        });
+    }
+
+    // 当前待写入的用户数
+    public int getQueueDepth() {
+        return pending.size();
+    }
+
+    public long getFlushedRows() {
+        return flushedRows.get();
+    }
+
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    public long getFailedFlushes() {
+        return failedFlushes.get();
+    }
+
+    public double getLastFlushMillis() {
+        return lastFlushNanos.get() / 1_000_000.0;
+    }
+
+    public double getMaxFlushMillis() {
+        return maxFlushNanos.get() / 1_000_000.0;
+    }
+}
@@ -1,28 +1,70 @@
 package org.example.service;
 
 import org.example.repository.CubeRepository;
-import org.example.repository.MapDataRepository;
+import org.example.repository.TrailStore;
 import org.example.repository.PropCubeRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 用户数据清理：重置和退出时删除cube、道具和轨迹
+ *
+ * cube和道具每个用户只有几行，直接批量删除；轨迹可能很长，只做逻辑删除（jpa存储开始新纪元），
+ * 请求耗时与轨迹长度无关，旧记录由后台任务按固定大小分批删除
+ */
 @Service
 public class DataCleanupService {
 
     private final CubeRepository cubeRepository;
-    private final MapDataRepository mapDataRepository;
+    private final TrailStore trailStore;
     private final UserService userService;
     private final PropCubeRepository propCubeRepository;
+    private final PropCubeService propCubeService;
+    private final CubeWriteBehindService cubeWriteBehindService;
+    private final OccupancyRasterService occupancyRasterService;
+    private final UserStateCache userStateCache;
+    private final PropSpawnScheduler propSpawnScheduler;
+    private final TrailTileService trailTileService;
+    private final int purgeChunkSize;
+    private final int purgeMaxChunks;
+    // 还有旧轨迹记录待删除的用户
+    private final Set<String> pendingPurge = ConcurrentHashMap.newKeySet();
 
     @Autowired
     public DataCleanupService(CubeRepository cubeRepository,
-                              MapDataRepository mapDataRepository,
-                              UserService userService, PropCubeRepository propCubeRepository) {
+                              TrailStore trailStore,
+                              UserService userService, PropCubeRepository propCubeRepository,
+                              PropCubeService propCubeService,
+                              CubeWriteBehindService cubeWriteBehindService,
+                              OccupancyRasterService occupancyRasterService,
+                              UserStateCache userStateCache,
+                              PropSpawnScheduler propSpawnScheduler,
+                              TrailTileService trailTileService,
+                              @Value("${game.trail.purge.chunk-size:1000}") int purgeChunkSize,
+                              @Value("${game.trail.purge.max-chunks:20}") int purgeMaxChunks) {
         this.cubeRepository = cubeRepository;
-        this.mapDataRepository = mapDataRepository;
+        this.trailStore = trailStore;
         this.userService = userService;
         this.propCubeRepository = propCubeRepository;
+        this.propCubeService = propCubeService;
+        this.cubeWriteBehindService = cubeWriteBehindService;
+        this.occupancyRasterService = occupancyRasterService;
+        this.userStateCache = userStateCache;
+        this.propSpawnScheduler = propSpawnScheduler;
+        this.trailTileService = trailTileService;
+        this.purgeChunkSize = purgeChunkSize;
+        this.purgeMaxChunks = purgeMaxChunks;
     }
 
     /**
@@ -37,15 +79,83 @@ public class DataCleanupService {
             return false;
         }
 
+        // 停止道具生成，重新开始游戏时再激活
+        propSpawnScheduler.deactivate(username);
+
+        // 丢弃尚未写入的位置更新，避免删除后被重新写回
+        cubeWriteBehindService.discard(username);
+
         // 删除用户的cube数据
         cubeRepository.deleteByUsername(username);
 
-        // 删除用户的mapdata数据
-        mapDataRepository.deleteByUsername(username);
+        // 删除用户的mapdata数据（逻辑删除），提交后交给后台任务分批物理删除
+        trailStore.deleteByUsername(username);
 
         // 删除用户的道具数据
         propCubeRepository.deleteByUsername(username);
 
+        // 内存中的缓存和索引在提交后再清除
+        afterCommit(username);
+
         return true;
     }
-}
\ No newline at end of file
+
+    // 启动时接上重启前未完成的删除
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumePendingPurges() {
+        pendingPurge.addAll(trailStore.usersWithStaleRecords());
+        if (!pendingPurge.isEmpty()) {
+            System.out.println("待删除旧轨迹记录的用户: " + pendingPurge.size());
+        }
+    }
+
+    /**
+     * 后台分批删除旧轨迹记录：每批一个短事务，每次执行最多删除max-chunks批，剩余的下次继续
+     */
+    @Scheduled(fixedDelayString = "${game.trail.purge.interval-ms:1000}")
+    public void purgeStaleTrails() {
+        int chunks = 0;
+        Iterator<String> iterator = pendingPurge.iterator();
+        while (iterator.hasNext() && chunks < purgeMaxChunks) {
+            String username = iterator.next();
+            // 先移出再删除，删除期间再次重置的用户会重新加入
+            iterator.remove();
+            long purged = 0;
+            int deleted;
+            do {
+                deleted = trailStore.purgeStale(username, purgeChunkSize);
+                purged += deleted;
+                chunks++;
+            } while (deleted == purgeChunkSize && chunks < purgeMaxChunks);
+            if (deleted == purgeChunkSize) {
+                pendingPurge.add(username);
+            }
+            if (purged > 0) {
+                System.out.println("已删除用户" + username + "的旧轨迹记录: " + purged + "条");
+            }
+        }
+    }
+
+    // 提交前清除的话，并发请求可能在提交前把旧数据重新加载进缓存；
+    // 逻辑删除提交后才能看到新纪元，之前开始物理删除会漏掉记录
+    private void afterCommit(String username) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    releaseUserState(username);
+                }
+            });
+        } else {
+            releaseUserState(username);
+        }
+    }
+
+    private void releaseUserState(String username) {
+        occupancyRasterService.evict(username);
+        trailTileService.evict(username);
+        propCubeService.releaseAllQuadrants(username);
+        userStateCache.evictAll(username);
+        pendingPurge.add(username);
+    }
+}
@@ -0,0 +1,18 @@
+package org.example.service;
+
+import org.example.dto.GameEvent;
+
+import java.util.function.Consumer;
+
+/**
+ * 游戏事件总线：服务发布道具、计时等事件，WebSocket处理器订阅后推送给本节点上的会话
+ * 通过配置项 game.event-bus 选择实现：local（进程内）或 outbox（共享数据库中的事件表，支持多节点）
+ */
+public interface GameEventBus {
+
+    // 发布事件；在事务中调用时随事务提交
+    void publish(GameEvent event);
+
+    // 订阅事件，监听器在本节点收到事件时调用
+    void subscribe(Consumer<GameEvent> listener);
+}
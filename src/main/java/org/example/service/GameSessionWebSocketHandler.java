@@ -0,0 +1,118 @@
+package org.example.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.example.config.JwtHandshakeInterceptor;
+import org.example.dto.Cube;
+import org.example.dto.GameEvent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 游戏会话通道：连接时下发一次计时状态，之后只推送暂停/继续/到期事件，
+ * 客户端据此在本地倒计时，不再每秒轮询/api/game/time
+ */
+@Component
+public class GameSessionWebSocketHandler extends TextWebSocketHandler {
+    // 计时事件类型
+    public static final String TIME_SYNC = "TIME_SYNC";
+    public static final String TIME_PAUSE = "TIME_PAUSE";
+    public static final String TIME_RESUME = "TIME_RESUME";
+    public static final String TIME_EXPIRE = "TIME_EXPIRE";
+
+    // 按用户名分组的会话
+    private static final WebSocketSessionRegistry registry = new WebSocketSessionRegistry();
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    // 计时事件只需保留最新状态，排队中的旧事件被新事件替换
+    private static final String COALESCE_KEY = "TIME";
+    // 异步发送层，广播方法为静态方法，由Spring注入时设置
+    private static WebSocketOutbound outbound;
+
+    @Autowired
+    private CubeService cubeService;
+
+    @Autowired
+    public void setOutbound(WebSocketOutbound outbound) {
+        GameSessionWebSocketHandler.outbound = outbound;
+    }
+
+    @Autowired
+    public void setEventBus(GameEventBus eventBus) {
+        eventBus.subscribe(GameSessionWebSocketHandler::onEvent);
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        String username = username(session);
+        outbound.register(session);
+        registry.register(username, session);
+        // 连接建立后下发当前计时状态
+        outbound.send(session, timeEvent(TIME_SYNC, cubeService.getCubeByUsername(username)), COALESCE_KEY);
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        registry.unregister(username(session), session);
+        outbound.unregister(session);
+    }
+
+    // 当前连接了游戏会话通道的用户（在线玩家）
+    public static Set<String> connectedUsers() {
+        return registry.users();
+    }
+
+    /**
+     * 计时状态，作为计时事件的负载经事件总线发布；剩余时间和截止时间按发布时刻计算
+     */
+    public static Map<String, Object> timeState(Cube cube) {
+        long now = System.currentTimeMillis();
+        Map<String, Object> state = new LinkedHashMap<>();
+        state.put("remainingMillis", cube.computeRemainingMillis(now));
+        state.put("deadline", cube.computeEffectiveDeadline(now));
+        state.put("serverTime", now);
+        state.put("paused", cube.isPaused());
+        state.put("expired", cube.isTimeExpired());
+        return state;
+    }
+
+    // 收到计时事件后推送给该用户在本节点上的所有会话，消息只序列化一次
+    private static void onEvent(GameEvent event) {
+        if (!event.getType().startsWith("TIME_")) {
+            return;
+        }
+        try {
+            ObjectNode message = objectMapper.createObjectNode();
+            message.put("type", event.getType());
+            message.setAll((ObjectNode) objectMapper.readTree(event.getPayload()));
+            outbound.send(registry.sessionsOf(event.getTarget()),
+                    new TextMessage(objectMapper.writeValueAsString(message)), COALESCE_KEY);
+        } catch (IOException e) {
+            throw new IllegalStateException("计时事件解析失败", e);
+        }
+    }
+
+    private static TextMessage timeEvent(String type, Cube cube) {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("type", type);
+        event.putAll(timeState(cube));
+        try {
+            return new TextMessage(objectMapper.writeValueAsString(event));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("计时事件序列化失败", e);
+        }
+    }
+
+    private static String username(WebSocketSession session) {
+        return (String) session.getAttributes().get(JwtHandshakeInterceptor.USERNAME_ATTRIBUTE);
+    }
+}
@@ -1,49 +1,118 @@
 package org.example.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.example.dto.Cube;
+import org.example.dto.GameEvent;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
-import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * 游戏计时：每局只保存截止时间和累计暂停时长，剩余时间在读取时计算；
+ * 到期事件由按截止时间排序的延迟队列触发，每次检查只处理到期的游戏
+ */
 @Service
 public class GameTimeService {
 
     private final CubeService cubeService;
+    private final PropSpawnScheduler propSpawnScheduler;
+    private final GameEventBus gameEventBus;
+    // 到期检查的执行耗时，以及两次检查的间隔超出1秒的部分（调度线程被占用时变大）
+    private final Timer tickTimer;
+    private final Timer tickDriftTimer;
+    private long lastTickNanos;
+
+    private static final long TICK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // 按实际截止时间排序的到期队列，暂停/继续后旧条目在到期时校验并丢弃
+    private final DelayQueue<Expiration> expirations = new DelayQueue<>();
+
+    // 缓存中的cube是共享对象，同一用户的计时变更（初始化、暂停、继续、到期）在该用户的锁上串行执行，
+    // 避免并发的暂停/继续交错修改计时字段；锁对象弱引用，无人持有时自动回收
+    private final Cache<String, Object> timerLocks = Caffeine.newBuilder().weakValues().build();
 
     @Autowired
-    public GameTimeService(CubeService cubeService) {
+    public GameTimeService(CubeService cubeService, PropSpawnScheduler propSpawnScheduler,
+                           GameEventBus gameEventBus, MeterRegistry meterRegistry) {
         this.cubeService = cubeService;
+        this.propSpawnScheduler = propSpawnScheduler;
+        this.gameEventBus = gameEventBus;
+        this.tickTimer = Timer.builder("game.time.tick")
+                .description("游戏到期检查的执行耗时")
+                .register(meterRegistry);
+        this.tickDriftTimer = Timer.builder("game.time.tick.drift")
+                .description("游戏到期检查实际开始时间与计划时间的偏差")
+                .register(meterRegistry);
+    }
+
+    // 启动时为所有进行中的游戏重建到期队列和道具生成
+    @EventListener(ApplicationReadyEvent.class)
+    public void scheduleActiveGames() {
+        long now = System.currentTimeMillis();
+        for (Cube cube : cubeService.findAllActiveGames()) {
+            if (cube.isTimeExpired() || cube.getTotalGameSeconds() <= 0) {
+                continue;
+            }
+            if (cube.getDeadlineMillis() == 0) {
+                // 旧存档：按剩余秒数建立截止时间
+                cube.setDeadlineMillis(now + cube.getRemainingSeconds() * 1000);
+                cube.setPausedMillis(0);
+                cube.setPausedAtMillis(0);
+                cubeService.saveUserTime(cube);
+            }
+            schedule(cube, now);
+            propSpawnScheduler.activate(cube, 0);
+        }
     }
 
     // 初始化游戏时间
     public void initGameTime(String username, int minutes) {
-        Cube cube = cubeService.getCubeByUsername(username);
-        cube.setTotalGameSeconds(minutes * 60L);
-        cube.setRemainingSeconds(minutes * 60L);
-        cube.setTimeExpired(false);
-        cubeService.saveUserCube(cube);
+        synchronized (timerLock(username)) {
+            long now = System.currentTimeMillis();
+            Cube cube = cubeService.getCubeByUsername(username);
+            cube.setTotalGameSeconds(minutes * 60L);
+            cube.setRemainingSeconds(minutes * 60L);
+            cube.setTimeExpired(false);
+            cube.setDeadlineMillis(now + minutes * 60_000L);
+            cube.setPausedMillis(0);
+            cube.setPausedAtMillis(cube.isPaused() ? now : 0);
+            cubeService.saveUserTime(cube);
+            schedule(cube, now);
+            if (!cube.isPaused()) {
+                propSpawnScheduler.activate(cube, 0);
+            }
+            publishTimeEvent(GameSessionWebSocketHandler.TIME_SYNC, cube);
+        }
     }
 
-    // 每秒更新游戏时间
+    // 每秒检查一次到期的游戏
     @Scheduled(fixedRate = 1000) // 每秒执行一次
     public void updateGameTime() {
-        // 获取所有正在进行游戏的用户
-        List<Cube> activeCubes = cubeService.findAllActiveGames();
-
-        for (Cube cube : activeCubes) {
-            if (!cube.isTimeExpired() && !cube.isPaused() && cube.getRemainingSeconds() > 0) {
-                cube.setRemainingSeconds(cube.getRemainingSeconds() - 1);
-
-                // 检查时间是否结束
-                if (cube.getRemainingSeconds() <= 0) {
-                    cube.setTimeExpired(true);
-                }
+        long start = System.nanoTime();
+        if (lastTickNanos != 0) {
+            tickDriftTimer.record(Math.max(0, start - lastTickNanos - TICK_INTERVAL_NANOS), TimeUnit.NANOSECONDS);
+        }
+        lastTickNanos = start;
 
-                cubeService.saveUserTime(cube);
-            }
+        Expiration expiration;
+        while ((expiration = expirations.poll()) != null) {
+            expire(expiration.username);
         }
+        tickTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    // 剩余秒数
+    public long getRemainingSeconds(Cube cube) {
+        return cube.computeRemainingSeconds(System.currentTimeMillis());
     }
 
     // 格式化时间显示
@@ -54,14 +123,98 @@ public class GameTimeService {
     }
 
     public void pauseGameTime(String username) {
-        Cube cube = cubeService.getCubeByUsername(username);
-        cube.setPaused(true);
-        cubeService.saveUserTime(cube);
+        synchronized (timerLock(username)) {
+            Cube cube = cubeService.getCubeByUsername(username);
+            if (cube.isPaused()) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            cube.setRemainingSeconds(cube.computeRemainingSeconds(now));
+            cube.setPaused(true);
+            cube.setPausedAtMillis(now);
+            cubeService.saveUserTime(cube);
+            propSpawnScheduler.deactivate(username);
+            publishTimeEvent(GameSessionWebSocketHandler.TIME_PAUSE, cube);
+        }
     }
 
     public void resumeGameTime(String username) {
-        Cube cube = cubeService.getCubeByUsername(username);
-        cube.setPaused(false);
-        cubeService.saveUserTime(cube);
+        synchronized (timerLock(username)) {
+            Cube cube = cubeService.getCubeByUsername(username);
+            long now = System.currentTimeMillis();
+            long pausedFor = cube.isPaused() && cube.getPausedAtMillis() > 0 ? now - cube.getPausedAtMillis() : 0;
+            if (cube.getDeadlineMillis() == 0) {
+                // 旧存档：按剩余秒数建立截止时间
+                cube.setDeadlineMillis(now + cube.getRemainingSeconds() * 1000);
+                cube.setPausedMillis(0);
+            } else if (cube.isPaused() && cube.getPausedAtMillis() > 0) {
+                cube.setPausedMillis(cube.getPausedMillis() + now - cube.getPausedAtMillis());
+            } else if (!cube.isPaused()) {
+                return;
+            }
+            cube.setPaused(false);
+            cube.setPausedAtMillis(0);
+            cubeService.saveUserTime(cube);
+            schedule(cube, now);
+            if (!cube.isTimeExpired()) {
+                propSpawnScheduler.activate(cube, pausedFor);
+            }
+            publishTimeEvent(GameSessionWebSocketHandler.TIME_RESUME, cube);
+        }
+    }
+
+    private Object timerLock(String username) {
+        return timerLocks.get(username, name -> new Object());
+    }
+
+    // 计时事件经事件总线推送给该用户在所有节点上的会话
+    private void publishTimeEvent(String type, Cube cube) {
+        gameEventBus.publish(GameEvent.of(type, cube.getUsername(), GameSessionWebSocketHandler.timeState(cube)));
+    }
+
+    private void schedule(Cube cube, long now) {
+        if (cube.isTimeExpired() || cube.isPaused() || cube.getTotalGameSeconds() <= 0) {
+            return;
+        }
+        expirations.add(new Expiration(cube.getUsername(), cube.computeEffectiveDeadline(now)));
+    }
+
+    // 到期处理：重新读取最新状态，已暂停、已顺延或已结束的条目直接丢弃
+    private void expire(String username) {
+        synchronized (timerLock(username)) {
+            Cube cube = cubeService.getCubeByUsername(username);
+            long now = System.currentTimeMillis();
+            if (cube.isTimeExpired() || cube.isPaused() || cube.computeRemainingSeconds(now) > 0) {
+                return;
+            }
+            cube.setRemainingSeconds(0);
+            cube.setTimeExpired(true);
+            cubeService.saveUserTime(cube);
+            propSpawnScheduler.deactivate(username);
+            publishTimeEvent(GameSessionWebSocketHandler.TIME_EXPIRE, cube);
+        }
+    }
+
+    /**
+     * 到期队列条目
+     */
+    private static class Expiration implements Delayed {
+        private final String username;
+        private final long deadlineMillis;
+
+        Expiration(String username, long deadlineMillis) {
+            this.username = username;
+            this.deadlineMillis = deadlineMillis;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadlineMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(deadlineMillis, ((Expiration) other).deadlineMillis);
+        }
     }
 }
@@ -0,0 +1,40 @@
+package org.example.service;
+
+import org.example.dto.GameEvent;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * 进程内事件总线：发布时直接在当前线程通知所有监听器，只适用于单节点部署
+ */
+@Component
+@ConditionalOnProperty(name = "game.event-bus", havingValue = "local", matchIfMissing = true)
+public class LocalGameEventBus implements GameEventBus {
+
+    private final List<Consumer<GameEvent>> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(GameEvent event) {
+        deliver(listeners, event);
+    }
+
+    @Override
+    public void subscribe(Consumer<GameEvent> listener) {
+        listeners.add(listener);
+    }
+
+    // 单个监听器出错不影响其他监听器
+    static void deliver(List<Consumer<GameEvent>> listeners, GameEvent event) {
+        for (Consumer<GameEvent> listener : listeners) {
+            try {
+                listener.accept(event);
+            } catch (RuntimeException e) {
+                System.out.println("事件处理失败: " + event.getType() + ", " + e.getMessage());
+            }
+        }
+    }
+}
@@ -1,35 +1,105 @@
 // MapDataService.java
 package org.example.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.example.dto.Cube;
 import org.example.dto.MapData;
 import org.example.dto.Position;
-import org.example.repository.MapDataRepository;
+import org.example.repository.TrailStore;
+import org.example.utils.TrailColumnarWriter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class MapDataService {
 
-    private final MapDataRepository mapDataRepository;
+    private final TrailStore trailStore;
+    private final OccupancyRasterService occupancyRasterService;
+    private final UserStateCache userStateCache;
+    private final TrailTileService trailTileService;
+    private final Timer updateTimer;
+    private final Timer cleanupTimer;
+    // 有新印记、等待后台清理被覆盖数据的用户
+    private final Set<String> pendingCleanup = ConcurrentHashMap.newKeySet();
+
+    @Value("${game.mapdata.cleanup.interval-ms:60000}")
+    private long cleanupIntervalMillis;
+
+    private ScheduledExecutorService cleanupExecutor;
 
     @Autowired
-    public MapDataService(MapDataRepository mapDataRepository) {
-        this.mapDataRepository = mapDataRepository;
+    public MapDataService(TrailStore trailStore, OccupancyRasterService occupancyRasterService,
+                          UserStateCache userStateCache, TrailTileService trailTileService,
+                          MeterRegistry meterRegistry) {
+        this.trailStore = trailStore;
+        this.occupancyRasterService = occupancyRasterService;
+        this.userStateCache = userStateCache;
+        this.trailTileService = trailTileService;
+        this.updateTimer = Timer.builder("game.mapdata.update")
+                .description("根据立方体位置写入地图印记")
+                .register(meterRegistry);
+        this.cleanupTimer = Timer.builder("game.mapdata.cleanup")
+                .description("清理被完全覆盖的地图印记")
+                .register(meterRegistry);
     }
 
-    // 根据用户名获取所有地图数据
+    // 根据用户名获取所有地图数据（优先读缓存）
     public List<MapData> getMapDataByUsername(String username) {
-        // 需要在MapDataRepository中添加该方法
-        return mapDataRepository.findByUsername(username);
+        return userStateCache.getMapData(username, trailStore::findByUsername);
+    }
+
+    /**
+     * 按列式二进制格式输出用户的全部地图数据（格式见TrailColumnarWriter）
+     * 直接从存储游标逐条编码写出，不构建完整的实体列表
+     * @return 写出的记录数
+     */
+    public long writeColumnar(String username, OutputStream out) throws IOException {
+        TrailColumnarWriter writer = new TrailColumnarWriter(out);
+        try {
+            trailStore.forEach(username, mapData -> {
+                try {
+                    writer.write(mapData);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return writer.finish();
     }
 
     // 根据立方体信息更新地图数据
     public void updateMapData(Cube cube) {
+        long start = System.nanoTime();
+        try {
+            stampMapData(cube);
+        } finally {
+            updateTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void stampMapData(Cube cube) {
         String username = cube.getUsername();
         Position position = cube.getPosition();
         double size = cube.getSize();
@@ -39,119 +109,253 @@ public class MapDataService {
         MapData mapData = new MapData(username, position.getX(), position.getZ(), color, size);
         mapData.setRenderOrder(renderOrder); // 设置与Cube相同的渲染顺序
 
-        mapDataRepository.save(mapData);
+        // 被已有印记完全遮盖的印记直接丢弃，不再写入
+        if (occupancyRasterService.stamp(mapData)) {
+            trailStore.append(mapData);
+            userStateCache.appendMapData(mapData);
+            trailTileService.onAppend(mapData);
+            pendingCleanup.add(username);
+        }
+    }
+
+    /**
+     * 安排后台清理用户被覆盖的地图数据（只做标记，不访问数据库），
+     * 页面加载时调用，使重启前写入的轨迹也会被清理
+     */
+    public void scheduleCleanup(String username) {
+        pendingCleanup.add(username);
+    }
+
+    /**
+     * 后台清理有新印记的用户，清理需要扫描用户的全部地图数据，不放在页面加载等请求路径上；
+     * 在独立的单线程上执行，不占用@Scheduled的调度线程（默认只有一个，计时、写回、道具生成都依赖它）
+     */
+    @PostConstruct
+    public void startCleanup() {
+        cleanupExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mapdata-cleanup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        cleanupExecutor.scheduleWithFixedDelay(this::cleanUpPendingMapData,
+                cleanupIntervalMillis, cleanupIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stopCleanup() {
+        cleanupExecutor.shutdownNow();
+    }
+
+    public void cleanUpPendingMapData() {
+        Iterator<String> iterator = pendingCleanup.iterator();
+        while (iterator.hasNext()) {
+            String username = iterator.next();
+            // 先移出再清理，清理期间写入的新印记会重新加入
+            iterator.remove();
+            try {
+                cleanUpOverlappedMapData(username);
+            } catch (RuntimeException e) {
+                System.out.println("清理用户" + username + "被覆盖的地图数据失败: " + e.getMessage());
+            }
+        }
     }
 
     /**
      * 清理被后续多个MapData完全覆盖（无空隙）的旧数据
+     * 从新到旧单次反向扫描，只与空间网格中同一格子内的后续数据比较
      */
-    @Transactional
     public void cleanUpOverlappedMapData(String username) {
-        // 获取该用户的所有MapData，按ID升序排列（旧数据在前）
-        List<MapData> allMapData = mapDataRepository.findByUsernameOrderByIdAsc(username);
-        if (allMapData.size() <= 1) {
-            return; // 数据量不足，无需清理
+        long start = System.nanoTime();
+        try {
+            removeOverlappedMapData(username);
+        } finally {
+            cleanupTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         }
+    }
 
-        List<MapData> toDelete = new ArrayList<>();
+    private void removeOverlappedMapData(String username) {
+        // 从存储逐条读取，只保留ID、坐标和尺寸（按ID升序，旧数据在前），不构建实体列表，也不填充读缓存
+        Footprints footprints = new Footprints();
+        trailStore.forEach(username, footprints::add);
+        if (footprints.count <= 1) {
+            return; // 数据量不足，无需清理
+        }
 
-        // 检查每个MapData是否被后续数据完全覆盖
-        for (int i = 0; i < allMapData.size(); i++) {
-            MapData current = allMapData.get(i);
-            if (toDelete.contains(current)) {
-                continue;
-            }
+        // 最底层格子边长取最小正方形边长的一半，使每个格子内的候选数据尽量少
+        double minSize = Double.MAX_VALUE;
+        for (int i = 0; i < footprints.count; i++) {
+            minSize = Math.min(minSize, footprints.size[i]);
+        }
+        CoverageGrid grid = new CoverageGrid(footprints, Math.max(minSize / 2, 1));
 
-            // 获取当前数据之后的所有数据（ID更大的）
-            List<MapData> subsequentData = allMapData.subList(i + 1, allMapData.size());
-            if (subsequentData.isEmpty()) {
-                continue;
-            }
+        List<MapData> toDelete = new ArrayList<>();
 
+        // 反向扫描：网格中始终只包含当前数据之后的所有数据（ID更大的）
+        for (int i = footprints.count - 1; i >= 0; i--) {
             // 检查当前MapData是否被后续数据完全覆盖（无空隙）
-            if (isFullyCoveredBySubsequent(current, subsequentData)) {
-                toDelete.add(current);
+            if (isFullyCoveredBySubsequent(footprints, i, grid)) {
+                toDelete.add(footprints.toMapData(username, i));
             }
+            grid.insert(i);
         }
 
         // 执行删除
         if (!toDelete.isEmpty()) {
-            mapDataRepository.deleteAll(toDelete);
+            trailStore.removeAll(username, toDelete);
+            // 删除后记录ID可能变化（二进制日志压缩后重新编号），清除缓存；瓦片内容不含ID，只更新受影响瓦片的版本
+            userStateCache.evictMapData(username);
+            trailTileService.onRemove(username, toDelete);
         }
     }
 
     /**
-     * 检查当前MapData是否被后续数据完全覆盖（无空隙）
+     * 检查第i条数据是否被后续数据完全覆盖（无空隙）：
+     * 关键点位（4个顶点 + 4条边中点，共8个点）都被至少一个后续数据覆盖
      */
-    private boolean isFullyCoveredBySubsequent(MapData current, List<MapData> subsequentData) {
-        // 获取当前MapData的关键点位（4个顶点 + 4条边中点，共8个点）
-        List<Point> currentKeyPoints = getKeyPoints(current);
-
-        // 检查每个关键点位是否被至少一个后续MapData覆盖
-        for (Point point : currentKeyPoints) {
-            boolean isCovered = false;
-            // 检查该点是否被某个后续MapData覆盖
-            for (MapData later : subsequentData) {
-                if (isPointCovered(point, later)) {
-                    isCovered = true;
-                    break;
-                }
-            }
-            // 只要有一个点未被覆盖，当前MapData就不满足删除条件
-            if (!isCovered) {
-                return false;
-            }
-        }
-        return true;
+    private boolean isFullyCoveredBySubsequent(Footprints footprints, int i, CoverageGrid grid) {
+        double halfSize = footprints.size[i] / 2;
+        double x = footprints.x[i];
+        double z = footprints.z[i];
+        // 只要有一个点未被覆盖，当前MapData就不满足删除条件
+        return grid.isCovered(x - halfSize, z - halfSize) // 左下
+                && grid.isCovered(x + halfSize, z - halfSize) // 右下
+                && grid.isCovered(x - halfSize, z + halfSize) // 左上
+                && grid.isCovered(x + halfSize, z + halfSize) // 右上
+                && grid.isCovered(x, z - halfSize) // 下中
+                && grid.isCovered(x, z + halfSize) // 上中
+                && grid.isCovered(x - halfSize, z) // 左中
+                && grid.isCovered(x + halfSize, z); // 右中
     }
 
     /**
-     * 获取正方形的关键点位（用于验证覆盖范围）
+     * 清理扫描用的轨迹摘要：按读取顺序保存每条记录的ID、坐标和尺寸
      */
-    private List<Point> getKeyPoints(MapData data) {
-        double halfSize = data.getSize() / 2;
-        double x = data.getX();
-        double z = data.getZ();
-
-        List<Point> points = new ArrayList<>();
-        // 4个顶点
-        points.add(new Point(x - halfSize, z - halfSize)); // 左下
-        points.add(new Point(x + halfSize, z - halfSize)); // 右下
-        points.add(new Point(x - halfSize, z + halfSize)); // 左上
-        points.add(new Point(x + halfSize, z + halfSize)); // 右上
-        // 4条边中点
-        points.add(new Point(x, z - halfSize)); // 下中
-        points.add(new Point(x, z + halfSize)); // 上中
-        points.add(new Point(x - halfSize, z)); // 左中
-        points.add(new Point(x + halfSize, z)); // 右中
-        return points;
-    }
+    private static class Footprints {
+        long[] id = new long[1024];
+        double[] x = new double[1024];
+        double[] z = new double[1024];
+        double[] size = new double[1024];
+        int count;
 
-    /**
-     * 判断一个点是否被某个MapData的正方形区域覆盖
-     */
-    private boolean isPointCovered(Point point, MapData data) {
-        double halfSize = data.getSize() / 2;
-        double dataXMin = data.getX() - halfSize;
-        double dataXMax = data.getX() + halfSize;
-        double dataZMin = data.getZ() - halfSize;
-        double dataZMax = data.getZ() + halfSize;
-
-        // 点的坐标是否在当前MapData的范围内
-        return point.x >= dataXMin && point.x <= dataXMax
-                && point.z >= dataZMin && point.z <= dataZMax;
+        void add(MapData data) {
+            if (count == id.length) {
+                int capacity = count * 2;
+                id = Arrays.copyOf(id, capacity);
+                x = Arrays.copyOf(x, capacity);
+                z = Arrays.copyOf(z, capacity);
+                size = Arrays.copyOf(size, capacity);
+            }
+            id[count] = data.getId();
+            x[count] = data.getX();
+            z[count] = data.getZ();
+            size[count] = data.getSize();
+            count++;
+        }
+
+        // 删除只需要ID；坐标和尺寸用于确定受影响的瓦片
+        MapData toMapData(String username, int i) {
+            MapData data = new MapData(username, x[i], z[i], null, size[i]);
+            data.setId(id[i]);
+            return data;
+        }
+
+        // 点是否在第i条数据的正方形区域内
+        boolean covers(int i, double px, double pz) {
+            double halfSize = size[i] / 2;
+            return px >= x[i] - halfSize && px <= x[i] + halfSize
+                    && pz >= z[i] - halfSize && pz <= z[i] + halfSize;
+        }
     }
 
     /**
-     * 内部类：表示一个坐标点
+     * 内部类：分层均匀网格空间索引
+     * 每层格子边长为上一层的2倍，正方形登记到格子边长约为其一半的那一层，
+     * 被完整覆盖的格子只记一个标记，其余格子登记与其部分重叠的正方形（记录在Footprints中的下标）
      */
-    private static class Point {
-        double x;
-        double z;
+    private static class CoverageGrid {
+        private final Footprints footprints;
+        private final double baseCellSize;
+        private final List<Map<Long, Cell>> levels = new ArrayList<>();
+
+        CoverageGrid(Footprints footprints, double baseCellSize) {
+            this.footprints = footprints;
+            this.baseCellSize = baseCellSize;
+        }
+
+        void insert(int i) {
+            double size = footprints.size[i];
+            int level = 0;
+            while (baseCellSize * (1L << (level + 1)) * 2 <= size) {
+                level++;
+            }
+            while (levels.size() <= level) {
+                levels.add(new HashMap<>());
+            }
+            Map<Long, Cell> cells = levels.get(level);
+            double cellSize = baseCellSize * (1L << level);
 
-        Point(double x, double z) {
-            this.x = x;
-            this.z = z;
+            double halfSize = size / 2;
+            double xMin = footprints.x[i] - halfSize;
+            double xMax = footprints.x[i] + halfSize;
+            double zMin = footprints.z[i] - halfSize;
+            double zMax = footprints.z[i] + halfSize;
+            for (int cx = cellIndex(xMin, cellSize); cx <= cellIndex(xMax, cellSize); cx++) {
+                for (int cz = cellIndex(zMin, cellSize); cz <= cellIndex(zMax, cellSize); cz++) {
+                    Cell cell = cells.computeIfAbsent(key(cx, cz), k -> new Cell());
+                    if (cell.full) {
+                        continue; // 格子内任意点都已被覆盖，无需再登记
+                    }
+                    if (xMin <= cx * cellSize && (cx + 1) * cellSize <= xMax
+                            && zMin <= cz * cellSize && (cz + 1) * cellSize <= zMax) {
+                        cell.full = true;
+                        cell.partial = null;
+                    } else {
+                        cell.add(i);
+                    }
+                }
+            }
+        }
+
+        // 判断点是否被已登记的某个正方形覆盖
+        boolean isCovered(double px, double pz) {
+            for (int level = 0; level < levels.size(); level++) {
+                double cellSize = baseCellSize * (1L << level);
+                Cell cell = levels.get(level).get(key(cellIndex(px, cellSize), cellIndex(pz, cellSize)));
+                if (cell == null) {
+                    continue;
+                }
+                if (cell.full) {
+                    return true; // 所在格子已被完整覆盖
+                }
+                // 只检查该点所在格子内的数据（越新的越靠前）
+                for (int k = 0; k < cell.count; k++) {
+                    if (footprints.covers(cell.partial[k], px, pz)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private static int cellIndex(double value, double cellSize) {
+            return (int) Math.floor(value / cellSize);
+        }
+
+        private static long key(int cx, int cz) {
+            return ((long) cx << 32) | (cz & 0xFFFFFFFFL);
+        }
+
+        private static class Cell {
+            boolean full;
+            int[] partial = new int[4];
+            int count;
+
+            void add(int i) {
+                if (count == partial.length) {
+                    partial = Arrays.copyOf(partial, count * 2);
+                }
+                partial[count++] = i;
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,91 @@
+package org.example.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * 小地图PNG瓦片：用Java2D把占用栅格（由已保存的地图印记重放得到）的瓦片区域渲染为图片
+ *
+ * 瓦片划分与版本号沿用TrailTileService，印记写入时只有覆盖到的瓦片版本变化；
+ * 渲染结果按(用户, 瓦片, ETag)缓存，版本不变时不重复渲染
+ */
+@Service
+public class MinimapTileService {
+
+    private final TrailTileService trailTileService;
+    private final OccupancyRasterService occupancyRasterService;
+    private final int tilePixels;
+    private final Cache<String, byte[]> images;
+
+    @Autowired
+    public MinimapTileService(TrailTileService trailTileService, OccupancyRasterService occupancyRasterService,
+                              @Value("${game.minimap.tile-pixels:64}") int tilePixels,
+                              @Value("${game.minimap.cache-bytes:16777216}") long cacheBytes) {
+        this.trailTileService = trailTileService;
+        this.occupancyRasterService = occupancyRasterService;
+        this.tilePixels = tilePixels;
+        this.images = Caffeine.newBuilder()
+                .maximumWeight(cacheBytes)
+                .weigher((String key, byte[] png) -> png.length)
+                .build();
+    }
+
+    public String tileETag(String username, int tx, int tz) {
+        return trailTileService.tileETag(username, tx, tz);
+    }
+
+    /**
+     * 渲染指定瓦片，同一版本只渲染一次
+     * @param etag 调用方刚取得的瓦片ETag，作为缓存key的一部分
+     */
+    public byte[] renderPng(String username, int tx, int tz, String etag) {
+        return images.get(username + "/" + tx + "/" + tz + "/" + etag, key -> render(username, tx, tz));
+    }
+
+    private byte[] render(String username, int tx, int tz) {
+        // 瓦片对应的栅格格子范围
+        double cellsPerTile = trailTileService.getTileSize() / occupancyRasterService.getCellSize();
+        int rasterWidth = occupancyRasterService.getRasterWidth();
+        int minCx = Math.min(rasterWidth, (int) Math.round(tx * cellsPerTile));
+        int minCz = Math.min(rasterWidth, (int) Math.round(tz * cellsPerTile));
+        int maxCx = Math.min(rasterWidth, (int) Math.round((tx + 1) * cellsPerTile));
+        int maxCz = Math.min(rasterWidth, (int) Math.round((tz + 1) * cellsPerTile));
+        int cellsWide = Math.max(1, maxCx - minCx);
+        int cellsHigh = Math.max(1, maxCz - minCz);
+
+        BufferedImage cells = new BufferedImage(cellsWide, cellsHigh, BufferedImage.TYPE_INT_ARGB);
+        if (maxCx > minCx && maxCz > minCz) {
+            int[] argb = occupancyRasterService.regionArgb(username, minCx, minCz, cellsWide, cellsHigh);
+            cells.setRGB(0, 0, cellsWide, cellsHigh, argb, 0, cellsWide);
+        }
+
+        // 放大到瓦片像素尺寸，最近邻插值保持格子边缘清晰
+        BufferedImage tile = new BufferedImage(tilePixels, tilePixels, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = tile.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+            graphics.drawImage(cells, 0, 0, tilePixels, tilePixels, null);
+        } finally {
+            graphics.dispose();
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(tile, "png", out);
+        } catch (IOException e) {
+            throw new UncheckedIOException("小地图瓦片编码失败", e);
+        }
+        return out.toByteArray();
+    }
+}
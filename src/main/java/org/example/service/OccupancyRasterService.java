@@ -0,0 +1,124 @@
+package org.example.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.example.dto.MapData;
+import org.example.repository.TrailStore;
+import org.example.utils.OccupancyRaster;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 维护每个用户地面的占用栅格，随每个新印记增量更新
+ * 首次访问时从轨迹存储流式重放构建；超过最大用户数或长时间未访问的栅格被淘汰，再次访问时重建
+ */
+@Service
+public class OccupancyRasterService {
+
+    private final TrailStore trailStore;
+    private Cache<String, OccupancyRaster> rasters = newCache(1000, 30);
+
+    @Value("${game.floor-size:1000}")
+    private double floorSize;
+
+    @Value("${game.raster.cell-size:2}")
+    private double cellSize;
+
+    // 栅格放在堆外内存，玩家较多时减少GC压力
+    @Value("${game.raster.off-heap:false}")
+    private boolean offHeap;
+
+    @Value("${game.raster.max-users:1000}")
+    private long maxUsers;
+
+    @Value("${game.raster.idle-minutes:30}")
+    private long idleMinutes;
+
+    @Autowired
+    public OccupancyRasterService(TrailStore trailStore) {
+        this.trailStore = trailStore;
+    }
+
+    @PostConstruct
+    public void init() {
+        rasters = newCache(maxUsers, idleMinutes);
+    }
+
+    private static Cache<String, OccupancyRaster> newCache(long maxUsers, long idleMinutes) {
+        return Caffeine.newBuilder()
+                .maximumSize(maxUsers)
+                .expireAfterAccess(idleMinutes, TimeUnit.MINUTES)
+                .build();
+    }
+
+    /**
+     * 将印记盖到用户的栅格上
+     * @return 印记是否可见；不可见的印记无需保存
+     */
+    public boolean stamp(MapData mapData) {
+        return withRaster(mapData.getUsername(), raster -> raster.stamp(mapData.getX(), mapData.getZ(),
+                mapData.getSize(), mapData.getColor(), mapData.getRenderOrder()));
+    }
+
+    // 已涂色面积
+    public double paintedArea(String username) {
+        return withRaster(username, OccupancyRaster::paintedArea);
+    }
+
+    // 地面覆盖百分比
+    public double percentCovered(String username) {
+        return withRaster(username, OccupancyRaster::percentCovered);
+    }
+
+    // 显示为指定颜色的格子数
+    public int cellsOfColor(String username, String color) {
+        return withRaster(username, raster -> raster.cellsOfColor(color));
+    }
+
+    // 粗粒度栅格（小地图LOD），见OccupancyRaster.downsample
+    public String[] downsample(String username, int factor) {
+        return withRaster(username, raster -> raster.downsample(factor));
+    }
+
+    // 矩形区域内各格子的ARGB颜色，见OccupancyRaster.regionArgb
+    public int[] regionArgb(String username, int minCx, int minCz, int regionWidth, int regionHeight) {
+        return withRaster(username, raster -> raster.regionArgb(minCx, minCz, regionWidth, regionHeight));
+    }
+
+    // 栅格每边的格子数
+    public int getRasterWidth() {
+        return (int) Math.ceil(floorSize / cellSize);
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    public double getFloorSize() {
+        return floorSize;
+    }
+
+    // 用户数据被删除时丢弃栅格
+    public void evict(String username) {
+        rasters.invalidate(username);
+    }
+
+    private <T> T withRaster(String username, Function<OccupancyRaster, T> action) {
+        OccupancyRaster raster = rasters.get(username, this::build);
+        synchronized (raster) {
+            return action.apply(raster);
+        }
+    }
+
+    private OccupancyRaster build(String username) {
+        OccupancyRaster raster = new OccupancyRaster(floorSize, cellSize, offHeap);
+        trailStore.forEach(username, mapData -> raster.stamp(mapData.getX(), mapData.getZ(),
+                mapData.getSize(), mapData.getColor(), mapData.getRenderOrder()));
+        return raster;
+    }
+}
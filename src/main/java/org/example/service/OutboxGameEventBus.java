@@ -0,0 +1,105 @@
+package org.example.service;
+
+import org.example.dto.GameEvent;
+import org.example.repository.GameEventRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * 基于共享数据库事件表（transactional outbox）的事件总线，不需要额外的消息中间件
+ *
+ * 发布时把事件写入game_event_outbox表（在调用方事务中则随事务提交），本节点的监听器在提交后直接通知；
+ * 每个节点定时按ID顺序批量读取其他节点写入的事件并通知本节点的监听器。
+ * 读到ID不连续时，缺口可能属于尚未提交的事务，等待一段时间后再跳过
+ */
+@Component
+@ConditionalOnProperty(name = "game.event-bus", havingValue = "outbox")
+public class OutboxGameEventBus implements GameEventBus {
+
+    private final GameEventRepository gameEventRepository;
+    private final List<Consumer<GameEvent>> listeners = new CopyOnWriteArrayList<>();
+    private final String nodeId = UUID.randomUUID().toString();
+
+    @Value("${game.event-bus.outbox.gap-timeout-ms:2000}")
+    private long gapTimeoutMillis;
+
+    @Value("${game.event-bus.outbox.retention-minutes:10}")
+    private long retentionMinutes;
+
+    // 已处理到的事件ID，只由定时任务线程读写
+    private long cursor;
+
+    @Autowired
+    public OutboxGameEventBus(GameEventRepository gameEventRepository) {
+        this.gameEventRepository = gameEventRepository;
+    }
+
+    // 启动时从当前最大ID开始读取，不重放历史事件
+    @PostConstruct
+    public void init() {
+        Long maxId = gameEventRepository.findMaxId();
+        cursor = maxId == null ? 0 : maxId;
+        System.out.println("事件总线节点 " + nodeId + " 从事件ID " + cursor + " 开始读取");
+    }
+
+    @Override
+    public void publish(GameEvent event) {
+        event.setNodeId(nodeId);
+        gameEventRepository.save(event);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    LocalGameEventBus.deliver(listeners, event);
+                }
+            });
+        } else {
+            LocalGameEventBus.deliver(listeners, event);
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<GameEvent> listener) {
+        listeners.add(listener);
+    }
+
+    @Scheduled(fixedDelayString = "${game.event-bus.outbox.poll-interval-ms:100}")
+    public void pollEvents() {
+        List<GameEvent> batch;
+        do {
+            batch = gameEventRepository.findTop500ByIdGreaterThanOrderByIdAsc(cursor);
+            long now = System.currentTimeMillis();
+            for (GameEvent event : batch) {
+                if (event.getId() != cursor + 1 && now - event.getCreatedAtMillis() < gapTimeoutMillis) {
+                    // 前面的ID可能还未提交，下次再读
+                    return;
+                }
+                cursor = event.getId();
+                if (!nodeId.equals(event.getNodeId())) {
+                    LocalGameEventBus.deliver(listeners, event);
+                }
+            }
+        } while (batch.size() == 500);
+    }
+
+    // 每分钟清理超过保留时间的事件
+    @Scheduled(fixedRate = 60000)
+    public void purgeOldEvents() {
+        long before = System.currentTimeMillis() - retentionMinutes * 60_000L;
+        int deleted = gameEventRepository.deleteCreatedBefore(before);
+        if (deleted > 0) {
+            System.out.println("已清理过期事件: " + deleted + "条");
+        }
+    }
+}
@@ -1,28 +1,50 @@
 package org.example.service;
 
 import org.example.dto.Cube;
+import org.example.dto.GameEvent;
 import org.example.dto.Position;
 import org.example.dto.PropCube;
 import org.example.repository.PropCubeRepository;
+import org.example.utils.QuadrantOccupancy;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 public class PropCubeService {
 
     private final PropCubeRepository propCubeRepository;
+    private final UserStateCache userStateCache;
+    private final GameEventBus gameEventBus;
 
-    // 存储每个用户的随机间隔时间(10-30秒)和上次生成时间
-    private final Map<String, Integer> userIntervals = new HashMap<>();
-    private final Map<String, Long> lastGenerateTimes = new HashMap<>();
+    // 每个用户的象限占用位图，生成道具时不再查询数据库
+    private final QuadrantOccupancy quadrants = new QuadrantOccupancy();
+
+    // 指标：生成和删除（拾取）的道具数
+    private final AtomicLong spawnedCount = new AtomicLong();
+    private final AtomicLong deletedCount = new AtomicLong();
 
     @Autowired
-    public PropCubeService(PropCubeRepository propCubeRepository) {
+    public PropCubeService(PropCubeRepository propCubeRepository, UserStateCache userStateCache,
+                           GameEventBus gameEventBus) {
         this.propCubeRepository = propCubeRepository;
+        this.userStateCache = userStateCache;
+        this.gameEventBus = gameEventBus;
+    }
+
+    // 启动时根据已有道具重建象限占用
+    @PostConstruct
+    public void rebuildQuadrants() {
+        List<PropCube> existing = propCubeRepository.findAll();
+        for (PropCube propCube : existing) {
+            quadrants.claim(propCube.getUsername(), propCube.getIndex());
+        }
+        System.out.println("已加载道具象限占用: " + existing.size() + "个");
     }
 
     /**
@@ -34,9 +56,15 @@ public class PropCubeService {
         // 参数校验
         validatePropCube(propCube);
 
+        if (!quadrants.claim(propCube.getUsername(), propCube.getIndex())) {
+            throw new IllegalArgumentException("索引已存在，无法添加");
+        }
         try {
-            return propCubeRepository.save(propCube);
+            PropCube saved = propCubeRepository.save(propCube);
+            userStateCache.evictPropCubes(propCube.getUsername());
+            return saved;
         } catch (DataIntegrityViolationException e) {
+            quadrants.release(propCube.getUsername(), propCube.getIndex());
             throw new IllegalArgumentException("索引已存在，无法添加");
         }
     }
@@ -57,6 +85,10 @@ public class PropCubeService {
         return propCubeRepository.findByIndexAndUsername(index, username)
                 .map(propCube -> {
                     propCubeRepository.delete(propCube);
+                    quadrants.release(username, index);
+                    deletedCount.incrementAndGet();
+                    userStateCache.evictPropCubes(username);
+                    gameEventBus.publish(GameEvent.of(GameEvent.PROP_DELETED, username, propCube.getId()));
                     return true;
                 })
                 .orElseThrow(() -> new IllegalArgumentException("索引不存在或无权限删除"));
@@ -92,34 +124,6 @@ public class PropCubeService {
         }
     }
 
-    /**
-     * 处理指定用户的PropCube生成逻辑
-     */
-    public void processUserPropCubeGeneration(String username, Cube cube) {
-        // 为用户初始化随机间隔时间(10-30秒)
-        if (!userIntervals.containsKey(username)) {
-            userIntervals.put(username, generateRandomInterval());
-            lastGenerateTimes.put(username, System.currentTimeMillis());
-            return;
-        }
-
-        // 获取用户的间隔时间并检查是否到达生成时间
-        int interval = userIntervals.get(username);
-        long currentTime = System.currentTimeMillis();
-        long lastTime = lastGenerateTimes.get(username);
-
-        if (currentTime - lastTime >= interval * 1000L) {
-            // 计算用户当前所在象限
-            int userQuadrant = calculateUserQuadrant(cube.getPosition());
-
-            // 生成新道具
-            generateAndSavePropCube(username, userQuadrant, cube.getSize());
-            // 重置间隔时间和上次生成时间
-            userIntervals.put(username, generateRandomInterval());
-            lastGenerateTimes.put(username, currentTime);
-        }
-    }
-
     private int calculateUserQuadrant(Position position) {
         double x = position.getX();
         double z = position.getZ();
@@ -135,29 +139,20 @@ public class PropCubeService {
         }
     }
 
-    private void generateAndSavePropCube(String username, int userQuadrant, double cubeSize) {
-        // 获取所有不是用户所在的象限
-        List<Integer> otherQuadrants = new ArrayList<>();
-        for (int i = 1; i <= 4; i++) {
-            if (i != userQuadrant) {
-                otherQuadrants.add(i);
-            }
-        }
-
-        // 过滤出没有PropCube的象限
-        List<Integer> availableQuadrants = otherQuadrants.stream()
-                .filter(q -> !propCubeRepository.existsByIndex(q))
-                .collect(Collectors.toList());
-
-        if (availableQuadrants.isEmpty()) {
+    /**
+     * 在玩家所在象限以外的空闲象限生成一个道具（由PropSpawnScheduler定时调用）
+     */
+    public void spawnPropCube(String username, Cube cube) {
+        // 计算用户当前所在象限
+        int userQuadrant = calculateUserQuadrant(cube.getPosition());
+        double cubeSize = cube.getSize();
+
+        // 在位图中占用一个空闲象限，并发生成时由CAS保证不会重复占用
+        int targetQuadrant = quadrants.claimRandomFree(username, userQuadrant);
+        if (targetQuadrant == 0) {
             return; // 没有可用象限，不生成
         }
 
-        // 随机选择一个可用象限
-        int targetQuadrant = availableQuadrants.get(
-                new Random().nextInt(availableQuadrants.size())
-        );
-
         // 生成随机位置
         Position propPosition = generateRandomPosition(targetQuadrant);
         propPosition.setY(cubeSize / 2.0);
@@ -178,13 +173,20 @@ public class PropCubeService {
         );
         propCube.setIndex(targetQuadrant); // 设置象限索引
 
-        propCubeRepository.save(propCube);
+        try {
+            propCubeRepository.save(propCube);
+        } catch (RuntimeException e) {
+            quadrants.release(username, targetQuadrant);
+            throw e;
+        }
+        spawnedCount.incrementAndGet();
+        userStateCache.evictPropCubes(username);
 
-        PropCubeWebSocketHandler.broadcastPropCube(propCube);
+        gameEventBus.publish(GameEvent.of(GameEvent.PROP_ADDED, username, propCube));
     }
 
     private Position generateRandomPosition(int quadrant) {
-        Random random = new Random();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
         // 生成50-480之间的随机数
         int xAbs = 50 + random.nextInt(431);
         int zAbs = 50 + random.nextInt(431);
@@ -201,7 +203,7 @@ public class PropCubeService {
     }
 
     private String generateRandomColor() {
-        Random random = new Random();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
         // 生成0x000000到0xFFFFFF之间的随机颜色
         int colorValue = random.nextInt(0xFFFFFF + 1);
         // 转换为十六进制字符串，确保6位长度
@@ -209,7 +211,7 @@ public class PropCubeService {
     }
 
     private double generateRandomRotationSpeed() {
-        Random random = new Random();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
         // 50%概率生成负速度(-3到-0.5)，50%概率生成正速度(0.5到3)
         if (random.nextBoolean()) {
             // 负速度
@@ -220,10 +222,6 @@ public class PropCubeService {
         }
     }
 
-    private int generateRandomInterval() {
-        return 10 + new Random().nextInt(21); // 10-30秒
-    }
-
     /**
      * 根据用户名查询其所有道具Cube
      * @param username 用户名
@@ -233,23 +231,45 @@ public class PropCubeService {
         if (username == null || username.trim().isEmpty()) {
             throw new IllegalArgumentException("用户名不能为空");
         }
-        return propCubeRepository.findByUsername(username);
+        return userStateCache.getPropCubes(username, propCubeRepository::findByUsername);
     }
 
     /**
-     * 根据ID删除道具立方体
+     * 根据ID删除道具立方体（只能删除自己的道具）
      * @param id 道具ID
+     * @param username 操作的用户名
      * @return 是否删除成功
      */
-    public boolean deletePropCubeById(Long id) {
+    public boolean deletePropCubeById(Long id, String username) {
         if (id == null) {
             throw new IllegalArgumentException("道具ID不能为空");
         }
 
-        if (propCubeRepository.existsById(id)) {
-            propCubeRepository.deleteById(id);
-            return true;
-        }
-        return false;
+        return propCubeRepository.findById(id)
+                .filter(propCube -> propCube.getUsername().equals(username))
+                .map(propCube -> {
+                    propCubeRepository.delete(propCube);
+                    quadrants.release(username, propCube.getIndex());
+                    deletedCount.incrementAndGet();
+                    userStateCache.evictPropCubes(username);
+                    gameEventBus.publish(GameEvent.of(GameEvent.PROP_DELETED, username, propCube.getId()));
+                    return true;
+                })
+                .orElse(false);
+    }
+
+    /**
+     * 用户的道具被批量删除后释放其全部象限
+     */
+    public void releaseAllQuadrants(String username) {
+        quadrants.releaseAll(username);
+    }
+
+    public long getSpawnedCount() {
+        return spawnedCount.get();
+    }
+
+    public long getDeletedCount() {
+        return deletedCount.get();
     }
-}
\ No newline at end of file
+}
@@ -1,9 +1,14 @@
 package org.example.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.example.dto.PropCube;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.example.config.JwtHandshakeInterceptor;
+import org.example.dto.GameEvent;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;  // 新增注解
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
@@ -11,85 +16,208 @@ import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
 import java.io.IOException;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 // 声明为Spring组件（Bean）
 @Component
 public class PropCubeWebSocketHandler extends TextWebSocketHandler {
-    private static final Set<WebSocketSession> sessions =
-            Collections.newSetFromMap(new ConcurrentHashMap<>());
+    // 按用户名分组的会话，道具事件只发给道具所属用户
+    private static final WebSocketSessionRegistry registry = new WebSocketSessionRegistry();
     private static final ObjectMapper objectMapper = new ObjectMapper();
+    // 异步发送层，广播方法为静态方法，由Spring注入时设置
+    private static WebSocketOutbound outbound;
+    // 事件总线，其他节点发布的道具事件也从这里收到
+    private static GameEventBus eventBus;
+
+    // 每个用户的道具事件日志，长时间无人访问后回收；
+    // 每个日志创建时分配新纪元（以启动时间为起点递增），客户端据此识别服务器重启或日志重建后序号重新开始
+    private static Cache<String, PropEventLog> eventLogs = newEventLogs(30);
+    private static final AtomicLong EPOCHS = new AtomicLong(System.currentTimeMillis());
+    private static int eventLogCapacity = 256;
+    // 会话属性：已完成补发，之后才接收实时事件，保证事件按序号到达
+    private static final String RESUMED_ATTRIBUTE = "propEventsResumed";
 
     // 现在可以在Spring Bean中正常使用@Autowired
     @Autowired
     private PropCubeService propCubeService;
 
+    @Autowired
+    public void setOutbound(WebSocketOutbound outbound) {
+        PropCubeWebSocketHandler.outbound = outbound;
+    }
+
+    @Autowired
+    public void setEventBus(GameEventBus eventBus) {
+        PropCubeWebSocketHandler.eventBus = eventBus;
+        eventBus.subscribe(PropCubeWebSocketHandler::onEvent);
+    }
+
+    @Value("${game.ws.prop-events.buffer-size:256}")
+    public void setEventLogCapacity(int capacity) {
+        PropCubeWebSocketHandler.eventLogCapacity = capacity;
+    }
+
+    @Value("${game.ws.prop-events.idle-minutes:30}")
+    public void setEventLogIdleMinutes(long idleMinutes) {
+        PropCubeWebSocketHandler.eventLogs = newEventLogs(idleMinutes);
+    }
+
+    private static Cache<String, PropEventLog> newEventLogs(long idleMinutes) {
+        return Caffeine.newBuilder()
+                .expireAfterAccess(idleMinutes, TimeUnit.MINUTES)
+                .build();
+    }
+
     @Override
     public void afterConnectionEstablished(WebSocketSession session) {
-        sessions.add(session);
+        outbound.register(session);
+        registry.register(username(session), session);
     }
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
-        sessions.remove(session);
+        registry.unregister(username(session), session);
+        outbound.unregister(session);
     }
 
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
         JsonNode jsonNode = objectMapper.readTree(message.getPayload());
+        String type = jsonNode.get("type").asText();
 
-        if ("DELETE_PROP".equals(jsonNode.get("type").asText())) {
-            Long propId = jsonNode.get("id").asLong();
-            boolean deleted = propCubeService.deletePropCubeById(propId);
-            if (deleted) {
-                broadcastPropDeletion(propId);
-            }
+        if ("DELETE_PROP".equals(type)) {
+            // 只能删除自己的道具，删除成功后由PropCubeService发布事件
+            propCubeService.deletePropCubeById(jsonNode.get("id").asLong(), username(session));
+        } else if ("RESUME".equals(type)) {
+            resume(session, jsonNode.path("epoch").asLong(), jsonNode.path("lastSeq").asLong());
+        } else if ("SUBSCRIBE".equals(type)) {
+            registry.subscribe(session, jsonNode.get("topic").asText());
+        } else if ("UNSUBSCRIBE".equals(type)) {
+            registry.unsubscribe(session, jsonNode.get("topic").asText());
         }
     }
 
-    // 广播新增道具
-    public static void broadcastPropCube(PropCube propCube) {
-        try {
-            String json = objectMapper.writeValueAsString(propCube);
-            TextMessage message = new TextMessage(json);
-            for (WebSocketSession session : sessions) {
-                if (session.isOpen()) {
-                    session.sendMessage(message);
+    /**
+     * 客户端重连后补发最后收到的序号之后的事件；
+     * 纪元不同或缺口已超出缓冲时改为发送当前全部道具的快照
+     */
+    private void resume(WebSocketSession session, long epoch, long lastSeq) {
+        String username = username(session);
+        PropEventLog log = eventLog(username);
+        synchronized (log) {
+            List<TextMessage> delta = epoch == log.epoch() ? log.since(lastSeq) : null;
+            if (delta != null) {
+                for (TextMessage message : delta) {
+                    outbound.send(session, message);
                 }
+            } else {
+                Map<String, Object> snapshot = event("SNAPSHOT", log.epoch(), log.lastSeq());
+                snapshot.put("props", propCubeService.findPropCubesByUsername(username));
+                outbound.send(session, serialize(snapshot));
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+            session.getAttributes().put(RESUMED_ATTRIBUTE, true);
         }
     }
 
-    // 广播删除道具
-    public static void broadcastPropDeletion(Long propId) {
-        try {
-            String json = objectMapper.writeValueAsString(new DeleteMessage(propId));
-            TextMessage message = new TextMessage(json);
-            for (WebSocketSession session : sessions) {
-                if (session.isOpen()) {
-                    session.sendMessage(message);
-                }
+    // 收到事件总线上的事件（本节点或其他节点发布），推送给本节点上的会话
+    private static void onEvent(GameEvent event) {
+        if (GameEvent.PROP_ADDED.equals(event.getType())) {
+            JsonNode prop = parse(event.getPayload());
+            publish(event.getTarget(), (epoch, seq) -> {
+                Map<String, Object> message = event("PROP_ADDED", epoch, seq);
+                message.put("prop", prop);
+                return serialize(message);
+            });
+        } else if (GameEvent.PROP_DELETED.equals(event.getType())) {
+            long propId = Long.parseLong(event.getPayload());
+            publish(event.getTarget(), (epoch, seq) -> {
+                Map<String, Object> message = event("DELETE_PROP", epoch, seq);
+                message.put("id", propId);
+                return serialize(message);
+            });
+        } else if (GameEvent.TOPIC.equals(event.getType())) {
+            send(registry.subscribersOf(event.getTarget()), new TextMessage(event.getPayload()));
+        }
+    }
+
+    // 用户当前的事件纪元和序号，页面加载时下发给客户端作为补发起点
+    public static long currentEpoch(String username) {
+        return eventLog(username).epoch();
+    }
+
+    public static long currentSeq(String username) {
+        return eventLog(username).lastSeq();
+    }
+
+    // 分配序号、记录并推送；在日志锁内入队，保证发送顺序与序号一致
+    private static void publish(String username, EventEncoder encoder) {
+        PropEventLog log = eventLog(username);
+        synchronized (log) {
+            TextMessage message = log.append(seq -> encoder.encode(log.epoch(), seq));
+            outbound.send(resumedSessions(username), message, null);
+        }
+    }
+
+    private static List<WebSocketSession> resumedSessions(String username) {
+        List<WebSocketSession> resumed = new ArrayList<>();
+        for (WebSocketSession session : registry.sessionsOf(username)) {
+            if (session.getAttributes().containsKey(RESUMED_ATTRIBUTE)) {
+                resumed.add(session);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
+        return resumed;
+    }
+
+    private static PropEventLog eventLog(String username) {
+        return eventLogs.get(username, name -> new PropEventLog(EPOCHS.incrementAndGet(), eventLogCapacity));
+    }
+
+    // 根据日志纪元和分配的序号生成已序列化的事件
+    private interface EventEncoder {
+        TextMessage encode(long epoch, long seq);
+    }
+
+    private static Map<String, Object> event(String type, long epoch, long seq) {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("type", type);
+        event.put("epoch", epoch);
+        event.put("seq", seq);
+        return event;
     }
 
-    // 内部删除消息实体
-    private static class DeleteMessage {
-        private String type = "DELETE_PROP";
-        private Long id;
+    private static TextMessage serialize(Object event) {
+        try {
+            return new TextMessage(objectMapper.writeValueAsString(event));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("道具事件序列化失败", e);
+        }
+    }
 
-        public DeleteMessage(Long id) {
-            this.id = id;
+    private static JsonNode parse(String payload) {
+        try {
+            return objectMapper.readTree(payload);
+        } catch (IOException e) {
+            throw new IllegalStateException("道具事件解析失败", e);
         }
+    }
+
+    // 向订阅了主题的所有会话推送（共享房间），经事件总线发到所有节点
+    public static void publishToTopic(String topic, Object event) {
+        eventBus.publish(GameEvent.of(GameEvent.TOPIC, topic, event));
+    }
+
+    // 消息只序列化一次，异步发给所有目标会话；道具事件不能合并，否则删除可能先于新增到达
+    private static void send(Set<WebSocketSession> sessions, TextMessage message) {
+        outbound.send(sessions, message, null);
+    }
 
-        // getter方法（序列化需要）
-        public String getType() { return type; }
-        public Long getId() { return id; }
+    private static String username(WebSocketSession session) {
+        return (String) session.getAttributes().get(JwtHandshakeInterceptor.USERNAME_ATTRIBUTE);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,66 @@
+package org.example.service;
+
+import org.springframework.web.socket.TextMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongFunction;
+
+/**
+ * 单个用户的道具事件日志：每个事件分配递增序号，最近的事件保存在有界环形缓冲中，
+ * 客户端重连时按最后收到的序号补发缺失的事件
+ *
+ * 缓冲满后最早的事件被覆盖，低于水位线（最早保留序号）的缺口只能通过快照恢复；
+ * 日志被回收后重建时序号从头开始，纪元随之改变，客户端据此改为请求快照
+ */
+public class PropEventLog {
+
+    private final long epoch;
+    private final TextMessage[] ring;
+    // 最近分配的序号，0表示还没有事件
+    private long lastSeq;
+
+    public PropEventLog(long epoch, int capacity) {
+        this.epoch = epoch;
+        this.ring = new TextMessage[capacity];
+    }
+
+    /**
+     * 分配下一个序号并记录事件
+     * @param encoder 根据序号生成已序列化的事件
+     */
+    public synchronized TextMessage append(LongFunction<TextMessage> encoder) {
+        long seq = lastSeq + 1;
+        TextMessage message = encoder.apply(seq);
+        ring[(int) (seq % ring.length)] = message;
+        lastSeq = seq;
+        return message;
+    }
+
+    /**
+     * 序号之后的所有事件；缺口已被覆盖（或序号来自未来，如服务器重启后）时返回null
+     */
+    public synchronized List<TextMessage> since(long seq) {
+        if (seq > lastSeq || seq < watermark() - 1) {
+            return null;
+        }
+        List<TextMessage> delta = new ArrayList<>((int) (lastSeq - seq));
+        for (long s = seq + 1; s <= lastSeq; s++) {
+            delta.add(ring[(int) (s % ring.length)]);
+        }
+        return delta;
+    }
+
+    public long epoch() {
+        return epoch;
+    }
+
+    public synchronized long lastSeq() {
+        return lastSeq;
+    }
+
+    // 缓冲中最早保留的序号
+    public synchronized long watermark() {
+        return Math.max(1, lastSeq - ring.length + 1);
+    }
+}
@@ -0,0 +1,125 @@
+package org.example.service;
+
+import org.example.dto.Cube;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 道具生成调度：每个进行中的游戏在延迟队列中有一个条目，到达随机的10-30秒间隔时生成道具，
+ * 与玩家是否移动无关，也不再占用保存位置的请求
+ *
+ * 游戏开始/继续时激活，暂停/结束时停用（由GameTimeService驱动）；
+ * 下一次生成时间保存在cube中，重启后按原间隔恢复
+ */
+@Service
+public class PropSpawnScheduler {
+
+    // 生成间隔范围（毫秒）
+    private static final int MIN_INTERVAL_MILLIS = 10_000;
+    private static final int MAX_INTERVAL_MILLIS = 30_000;
+
+    private final CubeService cubeService;
+    private final PropCubeService propCubeService;
+
+    private final DelayQueue<SpawnEntry> queue = new DelayQueue<>();
+    // 进行中游戏的下一次生成时间；队列中与之不一致的条目已失效
+    private final Map<String, Long> activeDeadlines = new ConcurrentHashMap<>();
+
+    @Autowired
+    public PropSpawnScheduler(CubeService cubeService, PropCubeService propCubeService) {
+        this.cubeService = cubeService;
+        this.propCubeService = propCubeService;
+    }
+
+    /**
+     * 开始或继续为用户生成道具
+     * @param pausedMillis 刚结束的暂停时长，已保存的生成时间向后顺延
+     */
+    public void activate(Cube cube, long pausedMillis) {
+        String username = cube.getUsername();
+        long deadline = cube.getNextPropSpawnMillis();
+        if (deadline == 0) {
+            deadline = System.currentTimeMillis() + randomInterval();
+        } else {
+            deadline += pausedMillis;
+        }
+        if (deadline != cube.getNextPropSpawnMillis()) {
+            cube.setNextPropSpawnMillis(deadline);
+            cubeService.saveNextPropSpawn(username, deadline);
+        }
+        activeDeadlines.put(username, deadline);
+        queue.add(new SpawnEntry(username, deadline));
+    }
+
+    // 暂停或结束时停止生成，已保存的生成时间保留到继续时顺延
+    public void deactivate(String username) {
+        activeDeadlines.remove(username);
+    }
+
+    @Scheduled(fixedDelayString = "${game.prop.spawn.poll-interval-ms:500}")
+    public void spawnDueProps() {
+        SpawnEntry entry;
+        while ((entry = queue.poll()) != null) {
+            Long deadline = activeDeadlines.get(entry.username);
+            if (deadline == null || deadline != entry.deadlineMillis) {
+                continue; // 已停用或已重新安排
+            }
+            try {
+                Cube cube = cubeService.getCubeByUsername(entry.username);
+                propCubeService.spawnPropCube(entry.username, cube);
+            } catch (RuntimeException e) {
+                System.out.println("生成道具失败: " + e.getMessage());
+            }
+            reschedule(entry.username, entry.deadlineMillis);
+        }
+    }
+
+    private void reschedule(String username, long previousDeadline) {
+        long next = System.currentTimeMillis() + randomInterval();
+        // 期间被停用或重新激活时不覆盖
+        if (!activeDeadlines.replace(username, previousDeadline, next)) {
+            return;
+        }
+        cubeService.saveNextPropSpawn(username, next);
+        queue.add(new SpawnEntry(username, next));
+    }
+
+    private static int randomInterval() {
+        return ThreadLocalRandom.current().nextInt(MIN_INTERVAL_MILLIS, MAX_INTERVAL_MILLIS + 1);
+    }
+
+    public int getActiveCount() {
+        return activeDeadlines.size();
+    }
+
+    /**
+     * 延迟队列条目
+     */
+    private static class SpawnEntry implements Delayed {
+        private final String username;
+        private final long deadlineMillis;
+
+        SpawnEntry(String username, long deadlineMillis) {
+            this.username = username;
+            this.deadlineMillis = deadlineMillis;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadlineMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(deadlineMillis, ((SpawnEntry) other).deadlineMillis);
+        }
+    }
+}
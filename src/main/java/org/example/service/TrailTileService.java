@@ -0,0 +1,268 @@
+package org.example.service;
+
+import org.example.dto.MapData;
+import org.example.repository.TrailStore;
+import org.example.utils.TrailColumnarWriter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 把地面划分为固定边长的瓦片，按瓦片提供轨迹数据，客户端只加载视野附近的瓦片
+ *
+ * 每条印记按中心点归属一个瓦片；每个瓦片维护一个版本号，印记覆盖到的瓦片版本都会递增，
+ * ETag由索引纪元和版本号组成，内容未变时返回304。瓦片索引首次访问时从轨迹存储扫描构建；
+ * 清理覆盖删除印记时只递增相关瓦片的版本，重置时整体丢弃，重建后纪元变化，客户端缓存的ETag全部失效
+ *
+ * 小地图使用占用栅格聚合成的粗粒度LOD瓦片，不再逐条绘制印记
+ */
+@Service
+public class TrailTileService {
+
+    private final TrailStore trailStore;
+    private final OccupancyRasterService occupancyRasterService;
+    private final Map<String, TileIndex> indexes = new ConcurrentHashMap<>();
+    private final AtomicLong epochs = new AtomicLong(System.currentTimeMillis());
+
+    private final double tileSize;
+    private final double halfExtent;
+    private final int tilesPerSide;
+    private final int lodFactor;
+
+    @Autowired
+    public TrailTileService(TrailStore trailStore, OccupancyRasterService occupancyRasterService,
+                            @Value("${game.tiles.size:100}") double tileSize,
+                            @Value("${game.tiles.lod-cell-size:10}") double lodCellSize) {
+        this.trailStore = trailStore;
+        this.occupancyRasterService = occupancyRasterService;
+        this.tileSize = tileSize;
+        this.halfExtent = occupancyRasterService.getFloorSize() / 2;
+        this.tilesPerSide = (int) Math.ceil(occupancyRasterService.getFloorSize() / tileSize);
+        this.lodFactor = Math.max(1, (int) Math.round(lodCellSize / occupancyRasterService.getCellSize()));
+    }
+
+    public double getTileSize() {
+        return tileSize;
+    }
+
+    public int getTilesPerSide() {
+        return tilesPerSide;
+    }
+
+    /**
+     * 与指定范围相交、且有数据的瓦片及其ETag
+     */
+    public List<TileInfo> listTiles(String username, double minX, double minZ, double maxX, double maxZ) {
+        TileIndex index = index(username);
+        int minTx = tileOf(minX);
+        int maxTx = tileOf(maxX);
+        int minTz = tileOf(minZ);
+        int maxTz = tileOf(maxZ);
+        List<TileInfo> tiles = new ArrayList<>();
+        synchronized (index) {
+            for (int tz = minTz; tz <= maxTz; tz++) {
+                for (int tx = minTx; tx <= maxTx; tx++) {
+                    long version = index.versions[tz * tilesPerSide + tx];
+                    if (version > 0) {
+                        tiles.add(new TileInfo(tx, tz, etag("t", index.epoch, version)));
+                    }
+                }
+            }
+        }
+        return tiles;
+    }
+
+    public String tileETag(String username, int tx, int tz) {
+        checkTile(tx, tz);
+        TileIndex index = index(username);
+        synchronized (index) {
+            return etag("t", index.epoch, index.versions[tz * tilesPerSide + tx]);
+        }
+    }
+
+    /**
+     * 按列式二进制格式输出中心点落在瓦片内的印记（格式见TrailColumnarWriter）
+     * 边缘瓦片包含超出地面范围的印记
+     */
+    public long writeTile(String username, int tx, int tz, OutputStream out) throws IOException {
+        checkTile(tx, tz);
+        double minX = tx == 0 ? -Double.MAX_VALUE : tx * tileSize - halfExtent;
+        double maxX = tx == tilesPerSide - 1 ? Double.MAX_VALUE : (tx + 1) * tileSize - halfExtent;
+        double minZ = tz == 0 ? -Double.MAX_VALUE : tz * tileSize - halfExtent;
+        double maxZ = tz == tilesPerSide - 1 ? Double.MAX_VALUE : (tz + 1) * tileSize - halfExtent;
+
+        TrailColumnarWriter writer = new TrailColumnarWriter(out);
+        try {
+            trailStore.forEachInRange(username, minX, maxX, minZ, maxZ, mapData -> {
+                try {
+                    writer.write(mapData);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return writer.finish();
+    }
+
+    // 任一印记写入都会改变小地图，LOD版本取所有印记的写入次数
+    public String lodETag(String username) {
+        TileIndex index = index(username);
+        synchronized (index) {
+            return etag("l", index.epoch, index.total);
+        }
+    }
+
+    /**
+     * 按列式二进制格式输出小地图LOD：每个有颜色的粗格作为一个渲染顺序为0的正方形
+     */
+    public long writeLod(String username, OutputStream out) throws IOException {
+        String[] colors = occupancyRasterService.downsample(username, lodFactor);
+        int coarseWidth = (int) Math.round(Math.sqrt(colors.length));
+        double lodCellSize = lodFactor * occupancyRasterService.getCellSize();
+
+        TrailColumnarWriter writer = new TrailColumnarWriter(out);
+        for (int gz = 0; gz < coarseWidth; gz++) {
+            for (int gx = 0; gx < coarseWidth; gx++) {
+                String color = colors[gz * coarseWidth + gx];
+                if (color != null) {
+                    writer.write(new MapData(username, (gx + 0.5) * lodCellSize - halfExtent,
+                            (gz + 0.5) * lodCellSize - halfExtent, color, lodCellSize));
+                }
+            }
+        }
+        return writer.finish();
+    }
+
+    // 新印记写入后递增其覆盖到的瓦片版本；索引不存在时等首次访问再扫描，
+    // 构建中的索引持有同一把锁，等扫描完成后再递增（扫描已包含该印记时只是版本多加一次）
+    public void onAppend(MapData mapData) {
+        TileIndex index = indexes.get(mapData.getUsername());
+        if (index == null) {
+            return;
+        }
+        synchronized (index) {
+            bump(index, mapData);
+            index.total++;
+        }
+    }
+
+    /**
+     * 清理删除了部分印记后只递增这些印记覆盖到的瓦片版本，索引和纪元保留，
+     * 其他瓦片的ETag不变，客户端缓存继续有效；被删除的印记已被完全覆盖，占用栅格不变，LOD版本不变
+     */
+    public void onRemove(String username, Collection<MapData> removed) {
+        TileIndex index = indexes.get(username);
+        if (index == null) {
+            return;
+        }
+        synchronized (index) {
+            for (MapData mapData : removed) {
+                bump(index, mapData);
+            }
+        }
+    }
+
+    private void bump(TileIndex index, MapData mapData) {
+        double half = mapData.getSize() / 2;
+        int minTx = tileOf(mapData.getX() - half);
+        int maxTx = tileOf(mapData.getX() + half);
+        int minTz = tileOf(mapData.getZ() - half);
+        int maxTz = tileOf(mapData.getZ() + half);
+        for (int tz = minTz; tz <= maxTz; tz++) {
+            for (int tx = minTx; tx <= maxTx; tx++) {
+                index.versions[tz * tilesPerSide + tx]++;
+            }
+        }
+    }
+
+    // 轨迹被整体删除（重置）时丢弃索引
+    public void evict(String username) {
+        indexes.remove(username);
+    }
+
+    // 先放入空索引再在其锁内扫描：扫描期间写入的印记由onAppend在扫描完成后计入，不会丢失版本变化
+    private TileIndex index(String username) {
+        TileIndex index = indexes.computeIfAbsent(username,
+                name -> new TileIndex(epochs.incrementAndGet(), new long[tilesPerSide * tilesPerSide]));
+        synchronized (index) {
+            if (!index.built) {
+                build(username, index);
+                index.built = true;
+            }
+        }
+        return index;
+    }
+
+    // 初始版本号取瓦片内的印记数，没有印记的瓦片版本为0；扫描失败时下次访问重新扫描
+    private void build(String username, TileIndex index) {
+        Arrays.fill(index.versions, 0);
+        index.total = 0;
+        trailStore.forEach(username, mapData -> {
+            index.versions[tileOf(mapData.getZ()) * tilesPerSide + tileOf(mapData.getX())]++;
+            index.total++;
+        });
+    }
+
+    private int tileOf(double coordinate) {
+        int tile = (int) Math.floor((coordinate + halfExtent) / tileSize);
+        return Math.max(0, Math.min(tilesPerSide - 1, tile));
+    }
+
+    private void checkTile(int tx, int tz) {
+        if (tx < 0 || tz < 0 || tx >= tilesPerSide || tz >= tilesPerSide) {
+            throw new IllegalArgumentException("瓦片坐标超出范围: " + tx + "," + tz);
+        }
+    }
+
+    private static String etag(String prefix, long epoch, long version) {
+        return "\"" + prefix + Long.toHexString(epoch) + "-" + version + "\"";
+    }
+
+    /**
+     * 单个用户的瓦片版本，由调用方在该对象上同步
+     */
+    private static class TileIndex {
+        private final long epoch;
+        private final long[] versions;
+        private long total;
+        // 已从轨迹存储扫描完成
+        private boolean built;
+
+        TileIndex(long epoch, long[] versions) {
+            this.epoch = epoch;
+            this.versions = versions;
+        }
+    }
+
+    /**
+     * 瓦片列表中的一项
+     */
+    public static class TileInfo {
+        private final int tx;
+        private final int tz;
+        private final String etag;
+
+        TileInfo(int tx, int tz, String etag) {
+            this.tx = tx;
+            this.tz = tz;
+            this.etag = etag;
+        }
+
+        public int getTx() { return tx; }
+        public int getTz() { return tz; }
+        public String getEtag() { return etag; }
+    }
+}
@@ -0,0 +1,139 @@
+package org.example.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.example.dto.Cube;
+import org.example.dto.MapData;
+import org.example.dto.PropCube;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 按用户缓存cube、道具和地图数据的读取结果
+ *
+ * 每个用户的状态只会被该用户自己的请求和定时任务修改，修改路径负责写穿或清除缓存；
+ * 超过最大用户数或长时间未访问的条目自动淘汰；地图数据按缓存的记录总数限制，轨迹很长的用户先被淘汰
+ */
+@Service
+public class UserStateCache {
+
+    private final Cache<String, Cube> cubes;
+    private final Cache<String, List<PropCube>> propCubes;
+    private final Cache<String, List<MapData>> mapData;
+
+    public UserStateCache(@Value("${game.cache.max-users:1000}") long maxUsers,
+                          @Value("${game.cache.idle-minutes:10}") long idleMinutes,
+                          @Value("${game.cache.mapdata-max-records:500000}") long mapDataMaxRecords) {
+        this.cubes = build(maxUsers, idleMinutes);
+        this.propCubes = build(maxUsers, idleMinutes);
+        this.mapData = Caffeine.newBuilder()
+                .maximumWeight(mapDataMaxRecords)
+                .weigher((String username, List<MapData> records) -> Math.max(1, records.size()))
+                .expireAfterAccess(idleMinutes, TimeUnit.MINUTES)
+                .recordStats()
+                .build();
+    }
+
+    private static <V> Cache<String, V> build(long maxUsers, long idleMinutes) {
+        return Caffeine.newBuilder()
+                .maximumSize(maxUsers)
+                .expireAfterAccess(idleMinutes, TimeUnit.MINUTES)
+                .recordStats()
+                .build();
+    }
+
+    // ---------- cube ----------
+
+    public Cube getCube(String username, Function<String, Cube> loader) {
+        return cubes.get(username, loader);
+    }
+
+    // 只查缓存，不触发加载
+    public Cube peekCube(String username) {
+        return cubes.getIfPresent(username);
+    }
+
+    public void putCube(Cube cube) {
+        cubes.put(cube.getUsername(), cube);
+    }
+
+    public void evictCube(String username) {
+        cubes.invalidate(username);
+    }
+
+    // ---------- 道具 ----------
+
+    public List<PropCube> getPropCubes(String username, Function<String, List<PropCube>> loader) {
+        return propCubes.get(username, name -> Collections.unmodifiableList(loader.apply(name)));
+    }
+
+    public void evictPropCubes(String username) {
+        propCubes.invalidate(username);
+    }
+
+    // ---------- 地图数据 ----------
+
+    /**
+     * 返回地图数据的副本，调用方可以自由遍历，不受并发追加影响
+     */
+    public List<MapData> getMapData(String username, Function<String, List<MapData>> loader) {
+        List<MapData> cached = mapData.get(username, name -> new ArrayList<>(loader.apply(name)));
+        synchronized (cached) {
+            return new ArrayList<>(cached);
+        }
+    }
+
+    /**
+     * 新写入的地图数据追加到已缓存的列表；未缓存时等下次读取再加载
+     * 正在加载时等加载完成再追加（加载结果可能已包含这条记录，按ID去重），追加后按新长度重新计算权重
+     */
+    public void appendMapData(MapData data) {
+        mapData.asMap().computeIfPresent(data.getUsername(), (username, cached) -> {
+            synchronized (cached) {
+                if (!containsId(cached, data.getId())) {
+                    cached.add(data);
+                }
+            }
+            return cached;
+        });
+    }
+
+    // 列表按ID升序，只需从尾部查到比目标ID小的记录为止
+    private static boolean containsId(List<MapData> records, Long id) {
+        for (int i = records.size() - 1; i >= 0; i--) {
+            Long existing = records.get(i).getId();
+            if (existing == null || id == null || existing < id) {
+                return false;
+            }
+            if (existing.equals(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void evictMapData(String username) {
+        mapData.invalidate(username);
+    }
+
+    // 用户数据被删除或重置时清除全部缓存
+    public void evictAll(String username) {
+        evictCube(username);
+        evictPropCubes(username);
+        evictMapData(username);
+    }
+
+    public long getHitCount() {
+        return cubes.stats().hitCount() + propCubes.stats().hitCount() + mapData.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return cubes.stats().missCount() + propCubes.stats().missCount() + mapData.stats().missCount();
+    }
+}
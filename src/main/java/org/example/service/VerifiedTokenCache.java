@@ -0,0 +1,138 @@
+package org.example.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.jsonwebtoken.Claims;
+import org.example.utils.JwtTokenUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 已验证token缓存：以token的SHA-256摘要为key，保存验证通过的用户名和过期时间，
+ * 命中时跳过JWT解析、签名校验和用户查询
+ *
+ * 条目在token过期或最长保留时间到达时失效，登出和用户删除时主动清除
+ */
+@Service
+public class VerifiedTokenCache {
+
+    private final JwtTokenUtil jwtTokenUtil;
+    private final UserService userService;
+
+    @Value("${game.auth.token-cache.max-size:10000}")
+    private long maxSize;
+
+    // 条目最长保留时间，限制被外部删除的用户仍能通过验证的时长
+    @Value("${game.auth.token-cache.max-ttl-seconds:600}")
+    private long maxTtlSeconds;
+
+    private Cache<String, VerifiedToken> cache;
+
+    @Autowired
+    public VerifiedTokenCache(JwtTokenUtil jwtTokenUtil, UserService userService) {
+        this.jwtTokenUtil = jwtTokenUtil;
+        this.userService = userService;
+    }
+
+    @PostConstruct
+    public void init() {
+        long maxTtlNanos = TimeUnit.SECONDS.toNanos(maxTtlSeconds);
+        cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<String, VerifiedToken>() {
+                    @Override
+                    public long expireAfterCreate(String key, VerifiedToken value, long currentTime) {
+                        long untilExpiry = TimeUnit.MILLISECONDS.toNanos(value.expiresAtMillis - System.currentTimeMillis());
+                        return Math.max(0, Math.min(untilExpiry, maxTtlNanos));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, VerifiedToken value, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, value, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, VerifiedToken value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 验证token并返回用户名
+     * @throws RuntimeException token无效、已过期或用户不存在
+     */
+    public String verify(String token) {
+        String key = digest(token);
+        VerifiedToken verified = cache.getIfPresent(key);
+        if (verified != null && verified.expiresAtMillis > System.currentTimeMillis()) {
+            return verified.username;
+        }
+
+        // 未命中：一次解析同时完成签名和过期校验
+        Claims claims = jwtTokenUtil.extractAllClaims(token);
+        String username = claims.getSubject();
+        if (username == null || userService.findByUsername(username) == null) {
+            throw new RuntimeException("token验证失败");
+        }
+        cache.put(key, new VerifiedToken(username, claims.getExpiration().getTime()));
+        return username;
+    }
+
+    // 清除单个token（登出时调用）
+    public void invalidate(String token) {
+        if (token != null) {
+            cache.invalidate(digest(token));
+        }
+    }
+
+    // 清除用户的所有token（用户删除时调用）
+    public void invalidateUser(String username) {
+        cache.asMap().values().removeIf(verified -> verified.username.equals(username));
+    }
+
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    public long getSize() {
+        return cache.estimatedSize();
+    }
+
+    private static String digest(String token) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(messageDigest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("加密算法不存在: SHA-256", e);
+        }
+    }
+
+    /**
+     * 验证通过的token信息
+     */
+    private static class VerifiedToken {
+        private final String username;
+        private final long expiresAtMillis;
+
+        VerifiedToken(String username, long expiresAtMillis) {
+            this.username = username;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
@@ -0,0 +1,420 @@
+package org.example.service;
+
+import org.example.utils.VirtualThreads;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+
+import javax.annotation.PreDestroy;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * WebSocket异步发送层：每个会话一个有界发送队列，按顺序发送，
+ * 触发事件的线程（如HTTP请求线程）只负责入队，不会被慢客户端阻塞
+ *
+ * Tomcat会话使用容器的异步发送：发送线程只发起写入，写完后由回调调度下一条，
+ * 慢客户端只积压自己的队列，不占用共享的发送线程；其他会话（无原生会话）退回阻塞发送
+ *
+ * 队列满时按配置的策略处理：
+ *   DROP_OLDEST：丢弃最早的消息
+ *   COALESCE：带合并key的消息替换队列中同key的旧消息（只保留最新状态），仍然满时丢弃最早的消息
+ *   DISCONNECT：断开该会话
+ */
+@Component
+public class WebSocketOutbound {
+
+    public enum OverflowPolicy {
+        DROP_OLDEST, COALESCE, DISCONNECT
+    }
+
+    // Tomcat阻塞发送超时（退回阻塞发送时使用），超时后发送失败并断开会话
+    private static final String TOMCAT_SEND_TIMEOUT = "org.apache.tomcat.websocket.BLOCKING_SEND_TIMEOUT";
+
+    private final int queueSize;
+    private final OverflowPolicy policy;
+    private final long sendTimeoutMillis;
+    private final ExecutorService executor;
+    private final Map<String, OutboundQueue> queues = new ConcurrentHashMap<>();
+
+    private final AtomicLong totalDropped = new AtomicLong();
+    // 因队列满被丢弃的不可合并消息（如带序号的道具事件），客户端需按序号缺口补发
+    private final AtomicLong totalEventsDropped = new AtomicLong();
+    private final AtomicLong totalDisconnected = new AtomicLong();
+    private final AtomicLong totalSendFailures = new AtomicLong();
+
+    public WebSocketOutbound(@Value("${game.ws.outbound.queue-size:256}") int queueSize,
+                             @Value("${game.ws.outbound.overflow:COALESCE}") OverflowPolicy policy,
+                             @Value("${game.ws.outbound.send-timeout-ms:5000}") long sendTimeoutMillis,
+                             @Value("${game.ws.outbound.threads:4}") int threads,
+                             @Value("${game.threads.virtual:false}") boolean virtualThreads) {
+        this.queueSize = queueSize;
+        this.policy = policy;
+        this.sendTimeoutMillis = sendTimeoutMillis;
+        // 虚拟线程模式下每个有消息待发的会话各占一个虚拟线程，慢客户端不再占满固定的发送线程
+        if (virtualThreads) {
+            this.executor = VirtualThreads.newThreadPerTaskExecutor("ws-outbound-vt-");
+            return;
+        }
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "ws-outbound-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // 连接建立时为会话创建发送队列
+    public void register(WebSocketSession session) {
+        RemoteEndpoint.Async async = null;
+        if (session instanceof NativeWebSocketSession) {
+            javax.websocket.Session nativeSession =
+                    ((NativeWebSocketSession) session).getNativeSession(javax.websocket.Session.class);
+            if (nativeSession != null) {
+                nativeSession.getUserProperties().put(TOMCAT_SEND_TIMEOUT, sendTimeoutMillis);
+                async = nativeSession.getAsyncRemote();
+                async.setSendTimeout(sendTimeoutMillis);
+            }
+        }
+        queues.put(session.getId(), new OutboundQueue(session, async));
+    }
+
+    // 连接关闭时丢弃未发送的消息
+    public void unregister(WebSocketSession session) {
+        OutboundQueue queue = queues.remove(session.getId());
+        if (queue != null) {
+            queue.clear();
+        }
+    }
+
+    public void send(WebSocketSession session, WebSocketMessage<?> message) {
+        send(session, message, null);
+    }
+
+    /**
+     * 消息入队
+     * @param coalesceKey 合并key，COALESCE策略下替换队列中同key的旧消息；null表示不合并
+     */
+    public void send(WebSocketSession session, WebSocketMessage<?> message, String coalesceKey) {
+        OutboundQueue queue = queues.get(session.getId());
+        if (queue != null) {
+            queue.offer(message, coalesceKey);
+        }
+    }
+
+    // 同一条已序列化的消息发给多个会话
+    public void send(Collection<WebSocketSession> sessions, WebSocketMessage<?> message, String coalesceKey) {
+        for (WebSocketSession session : sessions) {
+            send(session, message, coalesceKey);
+        }
+    }
+
+    // 各会话的发送延迟快照
+    public List<SessionLag> snapshot() {
+        long now = System.nanoTime();
+        List<SessionLag> result = new ArrayList<>(queues.size());
+        for (OutboundQueue queue : queues.values()) {
+            result.add(queue.lag(now));
+        }
+        return result;
+    }
+
+    // 所有会话中排队最久的消息等待时长
+    public double getMaxQueuedMillis() {
+        double max = 0;
+        for (SessionLag lag : snapshot()) {
+            max = Math.max(max, lag.getOldestQueuedMillis());
+        }
+        return max;
+    }
+
+    public int getQueuedMessages() {
+        int total = 0;
+        for (OutboundQueue queue : queues.values()) {
+            total += queue.depth();
+        }
+        return total;
+    }
+
+    public long getTotalDropped() {
+        return totalDropped.get();
+    }
+
+    public long getTotalEventsDropped() {
+        return totalEventsDropped.get();
+    }
+
+    public long getTotalDisconnected() {
+        return totalDisconnected.get();
+    }
+
+    public long getTotalSendFailures() {
+        return totalSendFailures.get();
+    }
+
+    // 当前打开的会话数（所有WebSocket通道）
+    public int getSessionCount() {
+        return queues.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 单个会话的发送队列；同一时刻最多一条消息在发送，保证消息顺序
+     */
+    private class OutboundQueue implements Runnable {
+        private final WebSocketSession session;
+        // 容器的异步发送端，null表示阻塞发送
+        private final RemoteEndpoint.Async async;
+        private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // 发送期间持有；用显式锁而不是synchronized，阻塞发送时不会把虚拟线程固定在载体线程上
+        private final ReentrantLock sendLock = new ReentrantLock();
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong maxLagNanos = new AtomicLong();
+
+        OutboundQueue(WebSocketSession session, RemoteEndpoint.Async async) {
+            this.session = session;
+            this.async = async;
+        }
+
+        void offer(WebSocketMessage<?> message, String coalesceKey) {
+            boolean overflow = false;
+            synchronized (this) {
+                if (policy == OverflowPolicy.COALESCE && coalesceKey != null) {
+                    Iterator<Pending> iterator = pending.iterator();
+                    while (iterator.hasNext()) {
+                        if (coalesceKey.equals(iterator.next().coalesceKey)) {
+                            iterator.remove();
+                            dropped.incrementAndGet();
+                            totalDropped.incrementAndGet();
+                            break;
+                        }
+                    }
+                }
+                if (pending.size() >= queueSize) {
+                    if (policy == OverflowPolicy.DISCONNECT) {
+                        overflow = true;
+                    } else {
+                        Pending oldest = pending.pollFirst();
+                        dropped.incrementAndGet();
+                        totalDropped.incrementAndGet();
+                        if (oldest.coalesceKey == null) {
+                            totalEventsDropped.incrementAndGet();
+                        }
+                    }
+                }
+                if (!overflow) {
+                    pending.addLast(new Pending(message, coalesceKey, System.nanoTime()));
+                }
+            }
+            if (overflow) {
+                disconnect();
+                return;
+            }
+            if (scheduled.compareAndSet(false, true)) {
+                schedule();
+            }
+        }
+
+        @Override
+        public void run() {
+            if (async != null) {
+                Pending next = poll();
+                if (next != null) {
+                    sendAsync(next);
+                }
+                return;
+            }
+            Pending next;
+            while ((next = poll()) != null) {
+                deliver(next);
+            }
+        }
+
+        private Pending poll() {
+            synchronized (this) {
+                Pending next = pending.pollFirst();
+                if (next == null) {
+                    // 在锁内清除标记，保证之后入队的消息会重新调度
+                    scheduled.set(false);
+                }
+                return next;
+            }
+        }
+
+        private void schedule() {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // 服务关闭中，丢弃未发送的消息
+                clear();
+            }
+        }
+
+        // 发起一次异步写入，完成回调中再调度下一条；回调不直接递归发送，避免栈过深和占用容器线程
+        private void sendAsync(Pending next) {
+            if (!session.isOpen()) {
+                clear();
+                scheduled.set(false);
+                return;
+            }
+            SendHandler handler = result -> {
+                if (result.isOK()) {
+                    sent.incrementAndGet();
+                    maxLagNanos.accumulateAndGet(System.nanoTime() - next.enqueuedNanos, Math::max);
+                    schedule();
+                } else {
+                    fail(result.getException());
+                }
+            };
+            try {
+                if (next.message instanceof TextMessage) {
+                    async.sendText(((TextMessage) next.message).getPayload(), handler);
+                } else if (next.message instanceof BinaryMessage) {
+                    async.sendBinary(((BinaryMessage) next.message).getPayload().duplicate(), handler);
+                } else {
+                    deliver(next);
+                    schedule();
+                }
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        private void fail(Throwable error) {
+            System.out.println("WebSocket发送失败，断开会话: " + (error == null ? "" : error.getMessage()));
+            totalSendFailures.incrementAndGet();
+            clear();
+            try {
+                executor.execute(() -> closeQuietly(CloseStatus.SESSION_NOT_RELIABLE));
+            } catch (RejectedExecutionException e) {
+                // 服务关闭中
+            }
+        }
+
+        private void deliver(Pending next) {
+            try {
+                // 同一会话不允许并发发送
+                sendLock.lock();
+                try {
+                    if (!session.isOpen()) {
+                        clear();
+                        return;
+                    }
+                    session.sendMessage(next.message);
+                } finally {
+                    sendLock.unlock();
+                }
+                sent.incrementAndGet();
+                maxLagNanos.accumulateAndGet(System.nanoTime() - next.enqueuedNanos, Math::max);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("WebSocket发送失败，断开会话: " + e.getMessage());
+                totalSendFailures.incrementAndGet();
+                clear();
+                closeQuietly(CloseStatus.SESSION_NOT_RELIABLE);
+            }
+        }
+
+        private void disconnect() {
+            System.out.println("WebSocket发送队列已满，断开慢客户端: " + session.getId());
+            totalDisconnected.incrementAndGet();
+            clear();
+            // 关闭操作也可能阻塞，放到发送线程执行
+            executor.execute(() -> closeQuietly(CloseStatus.SESSION_NOT_RELIABLE));
+        }
+
+        private void closeQuietly(CloseStatus status) {
+            try {
+                session.close(status);
+            } catch (IOException | RuntimeException e) {
+                // 忽略关闭失败
+            }
+        }
+
+        synchronized void clear() {
+            pending.clear();
+        }
+
+        synchronized int depth() {
+            return pending.size();
+        }
+
+        SessionLag lag(long now) {
+            long oldestNanos;
+            int depth;
+            synchronized (this) {
+                Pending oldest = pending.peekFirst();
+                oldestNanos = oldest == null ? 0 : now - oldest.enqueuedNanos;
+                depth = pending.size();
+            }
+            return new SessionLag(session.getId(), depth, oldestNanos / 1_000_000.0,
+                    maxLagNanos.get() / 1_000_000.0, sent.get(), dropped.get());
+        }
+    }
+
+    private static class Pending {
+        private final WebSocketMessage<?> message;
+        private final String coalesceKey;
+        private final long enqueuedNanos;
+
+        Pending(WebSocketMessage<?> message, String coalesceKey, long enqueuedNanos) {
+            this.message = message;
+            this.coalesceKey = coalesceKey;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+
+    /**
+     * 单个会话的发送延迟指标
+     */
+    public static class SessionLag {
+        private final String sessionId;
+        private final int queueDepth;
+        private final double oldestQueuedMillis;
+        private final double maxLagMillis;
+        private final long sent;
+        private final long dropped;
+
+        SessionLag(String sessionId, int queueDepth, double oldestQueuedMillis,
+                   double maxLagMillis, long sent, long dropped) {
+            this.sessionId = sessionId;
+            this.queueDepth = queueDepth;
+            this.oldestQueuedMillis = oldestQueuedMillis;
+            this.maxLagMillis = maxLagMillis;
+            this.sent = sent;
+            this.dropped = dropped;
+        }
+
+        public String getSessionId() { return sessionId; }
+        public int getQueueDepth() { return queueDepth; }
+        public double getOldestQueuedMillis() { return oldestQueuedMillis; }
+        public double getMaxLagMillis() { return maxLagMillis; }
+        public long getSent() { return sent; }
+        public long getDropped() { return dropped; }
+    }
+}
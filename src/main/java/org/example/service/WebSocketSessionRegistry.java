@@ -0,0 +1,91 @@
+package org.example.service;
+
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * WebSocket会话注册表：按握手时验证的用户名分组，另支持按主题订阅（预留给共享房间）
+ * 推送时只遍历目标用户或主题下的会话
+ */
+public class WebSocketSessionRegistry {
+
+    // 会话属性：该会话订阅的主题
+    private static final String TOPICS_ATTRIBUTE = "subscribedTopics";
+
+    private final Map<String, Set<WebSocketSession>> userSessions = new ConcurrentHashMap<>();
+    private final Map<String, Set<WebSocketSession>> topicSessions = new ConcurrentHashMap<>();
+
+    public void register(String username, WebSocketSession session) {
+        session.getAttributes().put(TOPICS_ATTRIBUTE, ConcurrentHashMap.newKeySet());
+        add(userSessions, username, session);
+    }
+
+    // 会话关闭时移除，同时退订所有主题
+    public void unregister(String username, WebSocketSession session) {
+        remove(userSessions, username, session);
+        for (String topic : topicsOf(session)) {
+            remove(topicSessions, topic, session);
+        }
+    }
+
+    public void subscribe(WebSocketSession session, String topic) {
+        if (topicsOf(session).add(topic)) {
+            add(topicSessions, topic, session);
+        }
+    }
+
+    public void unsubscribe(WebSocketSession session, String topic) {
+        if (topicsOf(session).remove(topic)) {
+            remove(topicSessions, topic, session);
+        }
+    }
+
+    // 用户的所有会话
+    public Set<WebSocketSession> sessionsOf(String username) {
+        return userSessions.getOrDefault(username, Collections.emptySet());
+    }
+
+    // 订阅了主题的所有会话
+    public Set<WebSocketSession> subscribersOf(String topic) {
+        return topicSessions.getOrDefault(topic, Collections.emptySet());
+    }
+
+    // 有打开会话的用户
+    public Set<String> users() {
+        return Collections.unmodifiableSet(userSessions.keySet());
+    }
+
+    public int sessionCount() {
+        int count = 0;
+        for (Set<WebSocketSession> sessions : userSessions.values()) {
+            count += sessions.size();
+        }
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<String> topicsOf(WebSocketSession session) {
+        Set<String> topics = (Set<String>) session.getAttributes().get(TOPICS_ATTRIBUTE);
+        return topics != null ? topics : Collections.emptySet();
+    }
+
+    // 增删都在compute中完成，避免空集合被移除的同时有新会话加入
+    private static void add(Map<String, Set<WebSocketSession>> index, String key, WebSocketSession session) {
+        index.compute(key, (k, sessions) -> {
+            Set<WebSocketSession> result = sessions != null ? sessions : ConcurrentHashMap.newKeySet();
+            result.add(session);
+            return result;
+        });
+    }
+
+    private static void remove(Map<String, Set<WebSocketSession>> index, String key, WebSocketSession session) {
+        index.computeIfPresent(key, (k, sessions) -> {
+            sessions.remove(session);
+            return sessions.isEmpty() ? null : sessions;
+        });
+    }
+}
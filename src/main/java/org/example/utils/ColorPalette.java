@@ -0,0 +1,59 @@
+package org.example.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * 颜色调色板：把颜色字符串映射为紧凑的整数索引
+ * 非线程安全，由调用方负责同步
+ */
+public class ColorPalette {
+    // 索引以无符号short存储，最多65535种颜色
+    public static final int MAX_COLORS = 0xFFFF;
+
+    // 只接受"#RGB"或"#RRGGBB"格式的颜色
+    private static final Pattern COLOR_PATTERN = Pattern.compile("#([0-9a-fA-F]{3}|[0-9a-fA-F]{6})");
+
+    private final List<String> colors = new ArrayList<>();
+    private final Map<String, Integer> indexes = new HashMap<>();
+
+    public static boolean isValidColor(String color) {
+        return color != null && COLOR_PATTERN.matcher(color).matches();
+    }
+
+    // 获取颜色索引，不存在时返回-1
+    public int indexOf(String color) {
+        Integer index = indexes.get(color);
+        return index == null ? -1 : index;
+    }
+
+    // 获取颜色索引，不存在时追加到调色板
+    public int getOrAdd(String color) {
+        Integer index = indexes.get(color);
+        if (index != null) {
+            return index;
+        }
+        if (colors.size() >= MAX_COLORS) {
+            throw new IllegalStateException("调色板颜色数量已达上限");
+        }
+        colors.add(color);
+        indexes.put(color, colors.size() - 1);
+        return colors.size() - 1;
+    }
+
+    public String colorAt(int index) {
+        return colors.get(index);
+    }
+
+    public int size() {
+        return colors.size();
+    }
+
+    public void clear() {
+        colors.clear();
+        indexes.clear();
+    }
+}
@@ -62,8 +62,8 @@ public class JwtTokenUtil {
         return claimsResolver.apply(claims);
     }
 
-    // 提取所有声明
-    private Claims extractAllClaims(String token) {
+    // 解析并校验签名、过期时间，一次取得全部声明
+    public Claims extractAllClaims(String token) {
         return Jwts.parser().setSigningKey(secretKey).parseClaimsJws(token).getBody();
     }
 }
\ No newline at end of file
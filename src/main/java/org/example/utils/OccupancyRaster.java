@@ -0,0 +1,296 @@
+package org.example.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 单个用户地面的占用栅格：记录每个格子当前最上层印记的颜色和渲染顺序
+ *
+ * 每个格子一个int：最高位为"完整覆盖"标记，其后15位为渲染顺序（超出范围的按32767计），
+ * 低16位为颜色索引+1（0表示未涂色）。完整覆盖表示格子内每个点显示的印记渲染顺序都不低于格子记录的渲染顺序，
+ * 且渲染顺序相同的点颜色与格子一致；只有带此标记的格子才能据此判断新印记被遮盖
+ *
+ * 格子按16×16分块稀疏存储，只为涂过色的块分配空间，内存与已涂色面积成正比而不是与地面面积成正比
+ * 已涂色格子数和各颜色格子数随每次印记增量维护，查询为O(1)
+ * 非线程安全，由调用方负责同步
+ */
+public class OccupancyRaster {
+
+    private static final int FULL = 0x80000000;
+    private static final int STYLE = 0x7FFFFFFF;
+    private static final int MAX_RENDER_ORDER = 0x7FFF;
+
+    private static final int BLOCK_SHIFT = 4;
+    private static final int BLOCK_SIDE = 1 << BLOCK_SHIFT;
+    private static final int BLOCK_CELLS = BLOCK_SIDE * BLOCK_SIDE;
+
+    private final double halfExtent;
+    private final double cellSize;
+    private final int width;
+    private final int blocksPerSide;
+    private final boolean offHeap;
+    // 每个块在存储区中的起始位置，-1表示该块未分配（全部未涂色）
+    private final int[] blockOffsets;
+    private IntBuffer storage;
+    private int allocatedBlocks;
+    private final ColorPalette palette = new ColorPalette();
+
+    private int paintedCells;
+    private int[] colorCounts = new int[16];
+
+    // 上一个印记；与其完全相同的印记重画在自身之上，不改变外观（静止不动时的重复保存）
+    private double lastX = Double.NaN;
+    private double lastZ;
+    private double lastSize;
+    private int lastStyle;
+
+    /**
+     * @param floorSize 地面边长（以原点为中心）
+     * @param cellSize  格子边长
+     * @param offHeap   是否使用堆外内存存储格子
+     */
+    public OccupancyRaster(double floorSize, double cellSize, boolean offHeap) {
+        this.halfExtent = floorSize / 2;
+        this.cellSize = cellSize;
+        this.width = (int) Math.ceil(floorSize / cellSize);
+        this.blocksPerSide = (width + BLOCK_SIDE - 1) / BLOCK_SIDE;
+        this.offHeap = offHeap;
+        this.blockOffsets = new int[blocksPerSide * blocksPerSide];
+        Arrays.fill(blockOffsets, -1);
+        this.storage = allocate(4 * BLOCK_CELLS);
+    }
+
+    /**
+     * 盖上一个正方形印记
+     * @return 印记是否可能改变了地面外观；返回false表示该印记被已有印记完全遮盖，可以丢弃
+     */
+    public boolean stamp(double x, double z, double size, String color, int renderOrder) {
+        // 调色板已满时无法记录新颜色，保留印记、不更新栅格
+        if (palette.indexOf(color) < 0 && palette.size() >= ColorPalette.MAX_COLORS) {
+            return true;
+        }
+        int order = Math.max(0, Math.min(MAX_RENDER_ORDER, renderOrder));
+        int style = (order << 16) | (palette.getOrAdd(color) + 1);
+
+        double half = size / 2;
+        double left = x - half + halfExtent;
+        double right = x + half + halfExtent;
+        double bottom = z - half + halfExtent;
+        double top = z + half + halfExtent;
+        int minX = clamp((int) Math.floor(left / cellSize));
+        int maxX = clamp((int) Math.ceil(right / cellSize) - 1);
+        int minZ = clamp((int) Math.floor(bottom / cellSize));
+        int maxZ = clamp((int) Math.ceil(top / cellSize) - 1);
+
+        if (x == lastX && z == lastZ && size == lastSize && style == lastStyle) {
+            return false;
+        }
+
+        // 只有印记完全在地面内、且覆盖到的每个格子都已完整覆盖并遮住新印记时才能丢弃；
+        // 边缘格子只有部分与印记重叠，仍要求整个格子已完整覆盖，不会丢掉比格子窄的新涂色区域
+        boolean hidden = left >= 0 && bottom >= 0 && right <= width * cellSize && top <= width * cellSize;
+        for (int cz = minZ; cz <= maxZ && hidden; cz++) {
+            for (int cx = minX; cx <= maxX; cx++) {
+                int old = get(cx, cz);
+                if ((old & FULL) == 0 || changes(old & STYLE, style)) {
+                    hidden = false;
+                    break;
+                }
+            }
+        }
+        if (hidden) {
+            return false;
+        }
+
+        for (int cz = minZ; cz <= maxZ; cz++) {
+            for (int cx = minX; cx <= maxX; cx++) {
+                int old = get(cx, cz);
+                int oldStyle = old & STYLE;
+                if (!changes(oldStyle, style)) {
+                    continue; // 新印记在该格子内被遮住或与其相同，格子不变
+                }
+                boolean covers = left <= cx * cellSize && (cx + 1) * cellSize <= right
+                        && bottom <= cz * cellSize && (cz + 1) * cellSize <= top;
+                double centerX = (cx + 0.5) * cellSize;
+                double centerZ = (cz + 0.5) * cellSize;
+                boolean centerInside = left <= centerX && centerX <= right && bottom <= centerZ && centerZ <= top;
+                if (covers) {
+                    put(cx, cz, style | FULL);
+                    recount(oldStyle, style);
+                } else if (centerInside) {
+                    // 格子显示中心点的颜色，但格子内还有其他印记可见，不再是完整覆盖
+                    put(cx, cz, style);
+                    recount(oldStyle, style);
+                } else if ((old & FULL) != 0) {
+                    put(cx, cz, oldStyle);
+                }
+            }
+        }
+        lastX = x;
+        lastZ = z;
+        lastSize = size;
+        lastStyle = style;
+        return true;
+    }
+
+    // 栅格存储占用的字节数
+    public long memoryBytes() {
+        return (long) storage.capacity() * 4 + (long) blockOffsets.length * 4;
+    }
+
+    // 已涂色面积
+    public double paintedArea() {
+        return paintedCells * cellSize * cellSize;
+    }
+
+    // 地面覆盖百分比
+    public double percentCovered() {
+        return paintedCells * 100.0 / ((long) width * width);
+    }
+
+    // 当前显示为指定颜色的格子数
+    public int cellsOfColor(String color) {
+        int index = palette.indexOf(color);
+        return index < 0 || index + 1 >= colorCounts.length ? 0 : colorCounts[index + 1];
+    }
+
+    public int paintedCells() {
+        return paintedCells;
+    }
+
+    public double cellSize() {
+        return cellSize;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    // 格子当前显示的颜色，未涂色返回null
+    public String colorAt(int cx, int cz) {
+        int colorValue = get(cx, cz) & 0xFFFF;
+        return colorValue == 0 ? null : palette.colorAt(colorValue - 1);
+    }
+
+    /**
+     * 读取矩形区域内各格子的显示颜色
+     * @return 按行（z）排列的ARGB颜色，未涂色的格子为0（透明）
+     */
+    public int[] regionArgb(int minCx, int minCz, int regionWidth, int regionHeight) {
+        int[] argb = new int[palette.size() + 1];
+        for (int i = 0; i < palette.size(); i++) {
+            argb[i + 1] = 0xFF000000 | TrailColumnarWriter.parseRgb(palette.colorAt(i));
+        }
+        int[] result = new int[regionWidth * regionHeight];
+        for (int z = 0; z < regionHeight; z++) {
+            for (int x = 0; x < regionWidth; x++) {
+                result[z * regionWidth + x] = argb[get(minCx + x, minCz + z) & 0xFFFF];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 把栅格按factor×factor个格子合并为粗粒度栅格，每个粗格取其中出现最多的颜色
+     * @return 按行（z）排列的颜色，边长为ceil(width/factor)，未涂色的粗格为null
+     */
+    public String[] downsample(int factor) {
+        int coarseWidth = (width + factor - 1) / factor;
+        String[] result = new String[coarseWidth * coarseWidth];
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (int gz = 0; gz < coarseWidth; gz++) {
+            for (int gx = 0; gx < coarseWidth; gx++) {
+                counts.clear();
+                int best = 0;
+                int bestCount = 0;
+                for (int cz = gz * factor; cz < Math.min(width, (gz + 1) * factor); cz++) {
+                    for (int cx = gx * factor; cx < Math.min(width, (gx + 1) * factor); cx++) {
+                        int colorValue = get(cx, cz) & 0xFFFF;
+                        if (colorValue == 0) {
+                            continue;
+                        }
+                        int count = counts.merge(colorValue, 1, Integer::sum);
+                        if (count > bestCount) {
+                            best = colorValue;
+                            bestCount = count;
+                        }
+                    }
+                }
+                if (best != 0) {
+                    result[gz * coarseWidth + gx] = palette.colorAt(best - 1);
+                }
+            }
+        }
+        return result;
+    }
+
+    // 新印记是否会改变格子：格子未涂色、渲染顺序更高，或渲染顺序相同但颜色不同（后绘制的在上层）
+    private static boolean changes(int oldStyle, int style) {
+        if ((oldStyle & 0xFFFF) == 0) {
+            return true;
+        }
+        int oldOrder = oldStyle >>> 16;
+        int newOrder = style >>> 16;
+        return newOrder > oldOrder || (newOrder == oldOrder && oldStyle != style);
+    }
+
+    private void recount(int oldStyle, int style) {
+        int oldColor = oldStyle & 0xFFFF;
+        int newColor = style & 0xFFFF;
+        if (oldColor == 0) {
+            paintedCells++;
+        } else {
+            colorCounts[oldColor]--;
+        }
+        if (newColor >= colorCounts.length) {
+            colorCounts = Arrays.copyOf(colorCounts, Math.max(newColor + 1, colorCounts.length * 2));
+        }
+        colorCounts[newColor]++;
+    }
+
+    private int get(int cx, int cz) {
+        int offset = blockOffsets[(cz >> BLOCK_SHIFT) * blocksPerSide + (cx >> BLOCK_SHIFT)];
+        return offset < 0 ? 0 : storage.get(offset + cellInBlock(cx, cz));
+    }
+
+    private void put(int cx, int cz, int value) {
+        int block = (cz >> BLOCK_SHIFT) * blocksPerSide + (cx >> BLOCK_SHIFT);
+        int offset = blockOffsets[block];
+        if (offset < 0) {
+            offset = allocateBlock();
+            blockOffsets[block] = offset;
+        }
+        storage.put(offset + cellInBlock(cx, cz), value);
+    }
+
+    private static int cellInBlock(int cx, int cz) {
+        return ((cz & (BLOCK_SIDE - 1)) << BLOCK_SHIFT) | (cx & (BLOCK_SIDE - 1));
+    }
+
+    // 新块追加到存储区末尾，存储区满时容量翻倍
+    private int allocateBlock() {
+        int offset = allocatedBlocks * BLOCK_CELLS;
+        if (offset + BLOCK_CELLS > storage.capacity()) {
+            IntBuffer grown = allocate(storage.capacity() * 2);
+            storage.clear();
+            grown.put(storage);
+            storage = grown;
+        }
+        allocatedBlocks++;
+        return offset;
+    }
+
+    private IntBuffer allocate(int count) {
+        return offHeap
+                ? ByteBuffer.allocateDirect(count * 4).order(ByteOrder.nativeOrder()).asIntBuffer()
+                : IntBuffer.allocate(count);
+    }
+
+    private int clamp(int index) {
+        return Math.max(0, Math.min(width - 1, index));
+    }
+}
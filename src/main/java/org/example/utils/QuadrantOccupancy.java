@@ -0,0 +1,85 @@
+package org.example.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 每个用户四个象限的道具占用情况，用一个int的低4位表示（第i位对应象限i+1）
+ * 占用和释放都通过CAS完成，无需加锁，也不需要查询数据库
+ */
+public class QuadrantOccupancy {
+
+    private static final int ALL_QUADRANTS = 0b1111;
+
+    private final Map<String, AtomicInteger> masks = new ConcurrentHashMap<>();
+
+    /**
+     * 占用指定象限
+     * @return 是否占用成功；象限已被占用时返回false
+     */
+    public boolean claim(String username, int quadrant) {
+        AtomicInteger mask = mask(username);
+        int bit = bit(quadrant);
+        while (true) {
+            int current = mask.get();
+            if ((current & bit) != 0) {
+                return false;
+            }
+            if (mask.compareAndSet(current, current | bit)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 随机占用一个空闲象限
+     * @param excludedQuadrant 不参与选择的象限（玩家所在象限）
+     * @return 占用的象限（1-4），没有空闲象限时返回0
+     */
+    public int claimRandomFree(String username, int excludedQuadrant) {
+        AtomicInteger mask = mask(username);
+        while (true) {
+            int current = mask.get();
+            int free = ~current & ALL_QUADRANTS & ~bit(excludedQuadrant);
+            if (free == 0) {
+                return 0;
+            }
+            // 在空闲的位中随机选一个
+            int pick = ThreadLocalRandom.current().nextInt(Integer.bitCount(free));
+            int chosen = free;
+            for (int i = 0; i < pick; i++) {
+                chosen &= chosen - 1;
+            }
+            chosen = Integer.lowestOneBit(chosen);
+            if (mask.compareAndSet(current, current | chosen)) {
+                return Integer.numberOfTrailingZeros(chosen) + 1;
+            }
+        }
+    }
+
+    public void release(String username, int quadrant) {
+        AtomicInteger mask = masks.get(username);
+        if (mask != null) {
+            mask.getAndUpdate(current -> current & ~bit(quadrant));
+        }
+    }
+
+    public void releaseAll(String username) {
+        masks.remove(username);
+    }
+
+    public boolean isOccupied(String username, int quadrant) {
+        AtomicInteger mask = masks.get(username);
+        return mask != null && (mask.get() & bit(quadrant)) != 0;
+    }
+
+    private AtomicInteger mask(String username) {
+        return masks.computeIfAbsent(username, name -> new AtomicInteger());
+    }
+
+    private static int bit(int quadrant) {
+        return quadrant >= 1 && quadrant <= 4 ? 1 << (quadrant - 1) : 0;
+    }
+}
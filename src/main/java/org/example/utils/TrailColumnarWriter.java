@@ -0,0 +1,152 @@
+package org.example.utils;
+
+import org.example.dto.MapData;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 把轨迹记录按(尺寸, 渲染顺序)分组编码为列式二进制，客户端可直接作为类型化数组填充InstancedMesh
+ *
+ * 所有字段4字节对齐、小端序：
+ *   文件头：魔数"TRC1"(4) + 版本(4)
+ *   数据块：尺寸(float32) + 渲染顺序(uint32) + 记录数n(uint32)
+ *          + x[n](float32) + z[n](float32) + 颜色[n](uint32，0xRRGGBB)
+ *   结束块：记录数为0的数据块
+ *
+ * 记录逐条追加，每组攒满一块就立即写出，同一组可能分成多个数据块，客户端按(尺寸, 渲染顺序)合并；
+ * 内存占用只与分组数和块大小有关，与轨迹总量无关。非线程安全
+ */
+public class TrailColumnarWriter {
+
+    public static final int MAGIC = 0x31435254; // 小端序写出为"TRC1"
+    public static final int VERSION = 1;
+    // 每个数据块最多包含的记录数
+    static final int BLOCK_RECORDS = 4096;
+
+    private static final int BLOCK_HEADER_SIZE = 12;
+    private static final int RECORD_SIZE = 12;
+
+    private final OutputStream out;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BLOCK_HEADER_SIZE + BLOCK_RECORDS * RECORD_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private final Map<Long, Group> groups = new LinkedHashMap<>();
+    // 上一条记录的颜色，轨迹中相邻记录通常同色，省去重复解析
+    private String lastColor;
+    private int lastRgb;
+    private long written;
+
+    public TrailColumnarWriter(OutputStream out) throws IOException {
+        this.out = out;
+        buffer.putInt(MAGIC).putInt(VERSION);
+        flushBuffer();
+    }
+
+    public void write(MapData mapData) throws IOException {
+        float size = (float) mapData.getSize();
+        int renderOrder = mapData.getRenderOrder();
+        long key = ((long) Float.floatToIntBits(size) << 32) | (renderOrder & 0xFFFFFFFFL);
+        Group group = groups.get(key);
+        if (group == null) {
+            group = new Group(size, renderOrder);
+            groups.put(key, group);
+        }
+        group.x[group.count] = (float) mapData.getX();
+        group.z[group.count] = (float) mapData.getZ();
+        group.rgb[group.count] = rgb(mapData.getColor());
+        group.count++;
+        if (group.count == BLOCK_RECORDS) {
+            writeBlock(group);
+        }
+    }
+
+    /**
+     * 写出所有未满的数据块和结束块，不关闭输出流
+     * @return 写出的记录总数
+     */
+    public long finish() throws IOException {
+        for (Group group : groups.values()) {
+            if (group.count > 0) {
+                writeBlock(group);
+            }
+        }
+        buffer.putFloat(0).putInt(0).putInt(0);
+        flushBuffer();
+        out.flush();
+        return written;
+    }
+
+    private void writeBlock(Group group) throws IOException {
+        buffer.putFloat(group.size).putInt(group.renderOrder).putInt(group.count);
+        for (int i = 0; i < group.count; i++) {
+            buffer.putFloat(group.x[i]);
+        }
+        for (int i = 0; i < group.count; i++) {
+            buffer.putFloat(group.z[i]);
+        }
+        for (int i = 0; i < group.count; i++) {
+            buffer.putInt(group.rgb[i]);
+        }
+        flushBuffer();
+        written += group.count;
+        group.count = 0;
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+    }
+
+    private int rgb(String color) {
+        if (color == null || !color.equals(lastColor)) {
+            lastColor = color;
+            lastRgb = parseRgb(color);
+        }
+        return lastRgb;
+    }
+
+    /**
+     * 解析"#RRGGBB"或"#RGB"格式的颜色，无法解析时返回白色
+     */
+    public static int parseRgb(String color) {
+        if (color != null && color.startsWith("#")) {
+            try {
+                if (color.length() == 7) {
+                    return Integer.parseInt(color.substring(1), 16);
+                }
+                if (color.length() == 4) {
+                    int r = Character.digit(color.charAt(1), 16);
+                    int g = Character.digit(color.charAt(2), 16);
+                    int b = Character.digit(color.charAt(3), 16);
+                    if (r >= 0 && g >= 0 && b >= 0) {
+                        return (r * 0x11 << 16) | (g * 0x11 << 8) | b * 0x11;
+                    }
+                }
+            } catch (NumberFormatException e) {
+                // 按白色处理
+            }
+        }
+        return 0xFFFFFF;
+    }
+
+    /**
+     * 一个(尺寸, 渲染顺序)分组当前未写出的记录
+     */
+    private static class Group {
+        private final float size;
+        private final int renderOrder;
+        private final float[] x = new float[BLOCK_RECORDS];
+        private final float[] z = new float[BLOCK_RECORDS];
+        private final int[] rgb = new int[BLOCK_RECORDS];
+        private int count;
+
+        Group(float size, int renderOrder) {
+            this.size = size;
+            this.renderOrder = renderOrder;
+        }
+    }
+}
@@ -1,13 +1,101 @@
 let propCubes = [];
 
+// 立方体移动二进制上报通道（协议见CubeMovementWebSocketHandler）
+const CUBE_FRAME_COLOR = 0x01;
+const CUBE_FRAME_MOVE = 0x02;
+const CUBE_FRAME_ERROR = 0x82;
+let cubeSocket = null;
+let cubeSocketOpen = false;
+let cubeSeq = 0;
+let cubeColorIndexes = new Map();
+// 每个连接最多登记的颜色索引数，与服务端MAX_COLORS一致；登记满后循环复用最早的索引
+const CUBE_MAX_COLORS = 256;
+let cubeNextColorIndex = 0;
+// 复用同一个帧缓冲，避免每帧分配
+const cubeMoveFrame = new DataView(new ArrayBuffer(37));
+
+function connectCubeSocket() {
+    const protocol = window.location.protocol === 'https:' ? 'wss://' : 'ws://';
+    cubeSocket = new WebSocket(protocol + window.location.host + '/ws/cube?token=' + encodeURIComponent(token));
+    cubeSocket.binaryType = 'arraybuffer';
+
+    cubeSocket.onopen = () => {
+        cubeSocketOpen = true;
+        // 颜色表按连接登记，重连后重新登记
+        cubeColorIndexes = new Map();
+        cubeNextColorIndex = 0;
+    };
+
+    cubeSocket.onmessage = (event) => {
+        const view = new DataView(event.data);
+        if (view.getUint8(0) === CUBE_FRAME_ERROR) {
+            const error = new TextDecoder().decode(new Uint8Array(event.data, 5));
+            console.log('保存失败: ' + error);
+        }
+    };
+
+    cubeSocket.onclose = () => {
+        const wasOpen = cubeSocketOpen;
+        cubeSocketOpen = false;
+        cubeSocket = null;
+        // 连接断开期间使用HTTP保存，稍后重连；握手失败则一直使用HTTP
+        if (wasOpen) {
+            setTimeout(connectCubeSocket, 1000);
+        }
+    };
+}
+
+function cubeColorIndex(color) {
+    let index = cubeColorIndexes.get(color);
+    if (index === undefined) {
+        index = cubeNextColorIndex;
+        cubeNextColorIndex = (cubeNextColorIndex + 1) % CUBE_MAX_COLORS;
+        for (const [oldColor, oldIndex] of cubeColorIndexes) {
+            if (oldIndex === index) {
+                cubeColorIndexes.delete(oldColor);
+                break;
+            }
+        }
+        cubeColorIndexes.set(color, index);
+        const text = new TextEncoder().encode(color);
+        const frame = new Uint8Array(3 + text.length);
+        const view = new DataView(frame.buffer);
+        view.setUint8(0, CUBE_FRAME_COLOR);
+        view.setUint16(1, index);
+        frame.set(text, 3);
+        cubeSocket.send(frame);
+    }
+    return index;
+}
+
 // 在立方体移动后添加保存位置的逻辑
 function saveCubePosition() {
     if (!isPointerLocked) return;
 
+    const y = cubeMesh.position.y - cubeConfig.renderOrder * cubeConfig.renderOrder * 0.001;
+
+    if (cubeSocketOpen) {
+        const frame = cubeMoveFrame;
+        cubeSeq = (cubeSeq + 1) >>> 0;
+        frame.setUint8(0, CUBE_FRAME_MOVE);
+        frame.setUint32(1, cubeSeq);
+        frame.setFloat32(5, cubeMesh.position.x);
+        frame.setFloat32(9, y);
+        frame.setFloat32(13, cubeMesh.position.z);
+        frame.setFloat32(17, camera.position.x);
+        frame.setFloat32(21, camera.position.y);
+        frame.setFloat32(25, camera.position.z);
+        frame.setFloat32(29, cubeConfig.size);
+        frame.setUint16(33, cubeColorIndex(cubeConfig.color));
+        frame.setUint16(35, cubeConfig.renderOrder);
+        cubeSocket.send(frame.buffer);
+        return;
+    }
+
     const cubeData = {
         position: {
             x: cubeMesh.position.x,
-            y: cubeMesh.position.y - cubeConfig.renderOrder * cubeConfig.renderOrder * 0.001,
+            y: y,
             z: cubeMesh.position.z
         },
         color: cubeConfig.color,
@@ -44,6 +132,8 @@ function saveCubePosition() {
         });
 }
 
+connectCubeSocket();
+
 // 统一的401错误处理函数（带用户提示）
 function handleUnauthorized() {
     // 显示提示弹窗
@@ -175,16 +265,45 @@ function createPlaneAtCubePosition() {
     return instancedMesh;
 }
 
-// 连接WebSocket
-const socket = new WebSocket('ws://' + window.location.host + '/ws/propcubes');
+// 道具事件WebSocket：连接后发送最后收到的序号，服务器补发断线期间的事件
+let socket = null;
+
+function connectPropSocket() {
+    socket = new WebSocket((window.location.protocol === 'https:' ? 'wss://' : 'ws://') + window.location.host
+        + '/ws/propcubes?token=' + encodeURIComponent(token));
+
+    socket.onopen = () => {
+        propResumePending = false;
+        requestPropResume();
+    };
+
+    // 消息处理见collision-detection.js
+    socket.onmessage = handlePropMessage;
+
+    socket.onclose = () => {
+        if (!isTimeExpired) {
+            setTimeout(connectPropSocket, 1000);
+        }
+    };
+}
+
+// 请求补发最后收到的序号之后的事件，补发到达前（最多5秒）不重复请求
+let propResumePending = false;
+
+function requestPropResume() {
+    if (propResumePending || socket.readyState !== WebSocket.OPEN) {
+        return;
+    }
+    propResumePending = true;
+    setTimeout(() => propResumePending = false, 5000);
+    socket.send(JSON.stringify({
+        type: 'RESUME',
+        epoch: propEventEpoch,
+        lastSeq: lastPropSeq
+    }));
+}
 
-// 接收消息处理
-socket.onmessage = function(event) {
-    const propCube = JSON.parse(event.data);
-    console.log('收到新道具:', propCube);
-    // 添加道具到场景
-    addPropCubeToScene(propCube);
-};
+connectPropSocket();
 
 // 创建立方体函数
 // 创建立方体函数（添加发光效果）
@@ -153,20 +153,41 @@ function handlePropDeletion(propId) {
     }
 }
 
-// 初始化碰撞检测
-function initCollisionDetection() {
-    // 只保留WebSocket消息监听逻辑
-    socket.onmessage = function(event) {
-        const data = JSON.parse(event.data);
-        if (data.type === 'DELETE_PROP') {
-            handlePropDeletion(data.id);
-        } else {
-            // 保留原有的道具添加逻辑
-            console.log('收到新道具:', data);
-            addPropCubeToScene(data);
-        }
-    };
-}
+// 处理道具事件WebSocket消息
+function handlePropMessage(event) {
+    const data = JSON.parse(event.data);
+
+    if (data.type === 'SNAPSHOT') {
+        // 断线期间的事件已超出服务器缓冲，用快照替换全部道具
+        propCubes.forEach(prop => scene.remove(prop.mesh));
+        propCubes.length = 0;
+        data.props.forEach(addPropCubeToScene);
+        propEventEpoch = data.epoch;
+        lastPropSeq = data.seq;
+        propResumePending = false;
+        return;
+    }
 
-// 初始化碰撞检测
-document.addEventListener('DOMContentLoaded', initCollisionDetection);
\ No newline at end of file
+    // 跳过已处理过的事件
+    if (data.epoch === propEventEpoch && data.seq <= lastPropSeq) {
+        return;
+    }
+    // 序号不连续（事件在服务器端被丢弃）或纪元变化（日志已重建）：丢弃该事件，请求补发或快照
+    if (data.epoch !== propEventEpoch || data.seq !== lastPropSeq + 1) {
+        requestPropResume();
+        return;
+    }
+    propEventEpoch = data.epoch;
+    lastPropSeq = data.seq;
+    propResumePending = false;
+
+    if (data.type === 'DELETE_PROP') {
+        handlePropDeletion(data.id);
+    } else if (data.type === 'PROP_ADDED') {
+        // 页面加载时已包含的道具不重复添加
+        if (!propCubes.some(prop => prop.id === data.prop.id)) {
+            console.log('收到新道具:', data.prop);
+            addPropCubeToScene(data.prop);
+        }
+    }
+}
\ No newline at end of file
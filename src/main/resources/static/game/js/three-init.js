@@ -6,9 +6,17 @@ let floorYPosition;
 const floorSize = 1000;
 let updateStarfield;
 
-// 全局变量添加
-let minimapCamera, minimapRenderer; // 新增小地图相机和渲染器
-const minimapSize = 200; // 与HTML中设置的尺寸一致
+// 小地图：服务端渲染的PNG瓦片 + 立方体位置标记，不再用第二个WebGL渲染器逐帧渲染场景
+const minimapTiles = new Map(); // "tx,tz" -> {etag, img}
+let minimapMarker;
+
+// 地图数据按瓦片加载：只显示立方体附近的瓦片
+const trailViewRadius = 300; // 加载瓦片的视野半径（世界单位）
+const trailTiles = new Map(); // "tx,tz" -> {etag, meshes}
+let trailTileSize = 0; // 瓦片边长，由服务端返回
+let trailTileCenter = null;
+let trailTileLoading = false;
+let mapDataMaterial;
 
 function initThreeScene(cubeConfig, cameraConfig) {
     // 初始化场景
@@ -66,7 +74,8 @@ function initThreeScene(cubeConfig, cameraConfig) {
     floorWireframe.rotation.x = -Math.PI / 2;
     scene.add(floorWireframe);
 
-    createMapDataPlanes(floorYPosition);
+    updateTrailTiles();
+    setInterval(updateTrailTiles, 500);
 
     // 聚光灯参数部分
     spotLight = new THREE.SpotLight(0xFFFFFF, 1);
@@ -113,97 +122,250 @@ function initThreeScene(cubeConfig, cameraConfig) {
 
 // 新增：初始化小地图
 function initMinimap() {
-    // 获取小地图画布元素
-    const minimapCanvas = document.getElementById('minimap');
-    minimapCanvas.width = minimapSize;
-    minimapCanvas.height = minimapSize;
-
-    // 创建小地图正交相机 (位置设置在(0, -10, 0))
-    const halfSize = floorSize / 2;
-    minimapCamera = new THREE.OrthographicCamera(
-        -halfSize-1, halfSize+1,  // 左右边界
-        halfSize+1, -halfSize-1,  // 上下边界 (注意Y轴反转)
-        0.1, floorSize * 100  // 近远平面
-    );
-    minimapCamera.position.set(0, 100, 0); // 设置相机位置
-    minimapCamera.lookAt(0, 0, 0); // 看向原点
-
-    // 创建小地图专用渲染器
-    minimapRenderer = new THREE.WebGLRenderer({
-        canvas: minimapCanvas,
-        antialias: true,
-        alpha: true
+    const minimap = document.getElementById('minimap');
+
+    // 立方体位置标记（按地面百分比定位，小地图缩放时无需重新计算）
+    minimapMarker = document.createElement('div');
+    Object.assign(minimapMarker.style, {
+        position: 'absolute',
+        width: '6px',
+        height: '6px',
+        marginLeft: '-3px',
+        marginTop: '-3px',
+        border: '1px solid #FFFFFF',
+        zIndex: 1
     });
-    minimapRenderer.setSize(minimapSize, minimapSize);
+    minimap.appendChild(minimapMarker);
+
+    refreshMinimapTiles();
+    setInterval(refreshMinimapTiles, 3000);
 }
 
-// 修改：更新小地图函数
+// 修改：更新小地图函数（只移动立方体标记）
 function updateMinimap() {
-    if (!minimapRenderer || !minimapCamera) return;
-
-    // 直接渲染正交相机看到的场景内容到小地图
-    minimapRenderer.render(scene, minimapCamera);
+    if (!minimapMarker) return;
+    minimapMarker.style.left = `${(cubeMesh.position.x / floorSize + 0.5) * 100}%`;
+    minimapMarker.style.top = `${(cubeMesh.position.z / floorSize + 0.5) * 100}%`;
+    minimapMarker.style.background = cubeMesh.material.color.getStyle();
 }
 
-// 新增：创建地图数据平面的函数
-function createMapDataPlanes(floorYPosition) {
-    // 1. 按尺寸和渲染顺序分组
-    const groups = {};
-    mapDataList.forEach(mapData => {
-        const key = `${mapData.size}-${mapData.renderOrder}`;
-        if (!groups[key]) {
-            groups[key] = [];
+// 查询整个地面的瓦片版本，只替换ETag变化的瓦片图片；图片地址带版本号，未变化的瓦片由浏览器缓存直接提供
+function refreshMinimapTiles() {
+    const half = floorSize / 2;
+    const params = new URLSearchParams({minX: -half, minZ: -half, maxX: half, maxZ: half});
+    fetch('/api/map/tiles?' + params, {
+        headers: {
+            'Authorization': 'Bearer ' + token
         }
-        groups[key].push(mapData);
-    });
+    })
+        .then(response => {
+            if (!response.ok) {
+                throw new Error('HTTP ' + response.status);
+            }
+            return response.json();
+        })
+        .then(result => {
+            const minimap = document.getElementById('minimap');
+            const percent = 100 / result.tilesPerSide;
+            const listed = new Set();
+            result.tiles.forEach(tile => {
+                const key = tile.tx + ',' + tile.tz;
+                listed.add(key);
+                let cached = minimapTiles.get(key);
+                if (!cached) {
+                    const img = document.createElement('img');
+                    Object.assign(img.style, {
+                        position: 'absolute',
+                        left: `${tile.tx * percent}%`,
+                        top: `${tile.tz * percent}%`,
+                        width: `${percent}%`,
+                        height: `${percent}%`,
+                        imageRendering: 'pixelated'
+                    });
+                    minimap.appendChild(img);
+                    cached = {etag: null, img: img};
+                    minimapTiles.set(key, cached);
+                }
+                if (cached.etag !== tile.etag) {
+                    cached.etag = tile.etag;
+                    cached.img.src = `/api/map/minimap/${tile.tx}/${tile.tz}.png?v=${encodeURIComponent(tile.etag)}`;
+                }
+            });
+            // 数据被清理后不再有内容的瓦片
+            minimapTiles.forEach((cached, key) => {
+                if (!listed.has(key)) {
+                    cached.img.remove();
+                    minimapTiles.delete(key);
+                }
+            });
+        })
+        .catch(error => console.error('加载小地图失败:', error));
+}
 
-    // 2. 创建共享材质
-    const material = new THREE.MeshPhongMaterial({
-        vertexColors: THREE.InstanceColorUsage,
-        opacity: 1,
-        // 启用多边形偏移
-        polygonOffset: true,
-        polygonOffsetFactor: 1,    // 坡度因子
-        polygonOffsetUnits: 1      // 精度单位因子
+// 立方体跨过瓦片网格后，查询视野内有数据的瓦片，只请求新进入视野或ETag变化的瓦片
+function updateTrailTiles() {
+    if (trailTileLoading || !cubeMesh) return;
+    const x = cubeMesh.position.x;
+    const z = cubeMesh.position.z;
+    const center = trailTileSize > 0 ? Math.floor(x / trailTileSize) + ',' + Math.floor(z / trailTileSize) : null;
+    if (center !== null && center === trailTileCenter) return;
+
+    trailTileLoading = true;
+    const params = new URLSearchParams({
+        minX: x - trailViewRadius, minZ: z - trailViewRadius,
+        maxX: x + trailViewRadius, maxZ: z + trailViewRadius
     });
+    fetch('/api/map/tiles?' + params, {
+        headers: {
+            'Authorization': 'Bearer ' + token
+        }
+    })
+        .then(response => {
+            if (!response.ok) {
+                throw new Error('HTTP ' + response.status);
+            }
+            return response.json();
+        })
+        .then(result => {
+            trailTileSize = result.tileSize;
+            trailTileCenter = Math.floor(x / trailTileSize) + ',' + Math.floor(z / trailTileSize);
+            const inView = new Set();
+            const loads = [];
+            result.tiles.forEach(tile => {
+                const key = tile.tx + ',' + tile.tz;
+                inView.add(key);
+                const cached = trailTiles.get(key);
+                if (!cached || cached.etag !== tile.etag) {
+                    loads.push(loadTrailTile(tile, key));
+                }
+            });
+            // 离开视野的瓦片只隐藏，保留数据，再次进入时ETag未变则直接显示
+            trailTiles.forEach((cached, key) => {
+                cached.meshes.forEach(mesh => mesh.visible = inView.has(key));
+            });
+            return Promise.all(loads);
+        })
+        .catch(error => console.error('加载地图瓦片失败:', error))
+        .finally(() => trailTileLoading = false);
+}
 
-    // 3. 为每个组创建InstancedMesh
-    Object.values(groups).forEach(group => {
-        const size = group[0].size;
-        const renderOrder = group[0].renderOrder;
-
-        const geometry = new THREE.PlaneGeometry(size, size);
-        const instanceCount = group.length;
+function loadTrailTile(tile, key) {
+    return fetch(`/api/map/tiles/${tile.tx}/${tile.tz}`, {
+        headers: {
+            'Authorization': 'Bearer ' + token
+        }
+    })
+        .then(response => {
+            if (!response.ok) {
+                throw new Error('HTTP ' + response.status);
+            }
+            return response.arrayBuffer().then(buffer => {
+                const cached = trailTiles.get(key);
+                if (cached) {
+                    removeMapDataMeshes(cached.meshes);
+                }
+                trailTiles.set(key, {
+                    etag: response.headers.get('ETag') || tile.etag,
+                    meshes: addMapDataMeshes(parseTrailColumns(buffer), floorYPosition)
+                });
+            });
+        });
+}
 
-        const instancedMesh = new THREE.InstancedMesh(geometry, material, instanceCount);
-        instancedMesh.renderOrder = renderOrder; // 设置渲染顺序
+// 解析列式二进制：同一组可能分成多个数据块，按(尺寸, 渲染顺序)合并
+function parseTrailColumns(buffer) {
+    const view = new DataView(buffer);
+    if (buffer.byteLength < 8 || view.getUint32(0, true) !== 0x31435254) {
+        throw new Error('地图数据格式错误');
+    }
+    const groups = new Map();
+    let offset = 8;
+    while (offset + 12 <= buffer.byteLength) {
+        const size = view.getFloat32(offset, true);
+        const renderOrder = view.getUint32(offset + 4, true);
+        const count = view.getUint32(offset + 8, true);
+        offset += 12;
+        if (count === 0) {
+            break; // 结束块
+        }
+        const key = `${size}-${renderOrder}`;
+        if (!groups.has(key)) {
+            groups.set(key, {size, renderOrder, count: 0, blocks: []});
+        }
+        const group = groups.get(key);
+        // 字段4字节对齐，直接在原缓冲区上建立类型化数组视图（小端序）
+        group.blocks.push({
+            x: new Float32Array(buffer, offset, count),
+            z: new Float32Array(buffer, offset + count * 4, count),
+            rgb: new Uint32Array(buffer, offset + count * 8, count)
+        });
+        group.count += count;
+        offset += count * 12;
+    }
+    return groups;
+}
 
-        // 复用矩阵和颜色对象，减少内存开销
-        const matrix = new THREE.Matrix4();
-        const color = new THREE.Color();
+// 为每个分组创建InstancedMesh并加入场景
+function addMapDataMeshes(groups, floorYPosition) {
+    // 1. 所有瓦片共享同一材质
+    if (!mapDataMaterial) {
+        mapDataMaterial = new THREE.MeshPhongMaterial({
+            vertexColors: THREE.InstanceColorUsage,
+            opacity: 1,
+            // 启用多边形偏移
+            polygonOffset: true,
+            polygonOffsetFactor: 1,    // 坡度因子
+            polygonOffsetUnits: 1      // 精度单位因子
+        });
+    }
+    const meshes = [];
 
-        // 4. 为每个实例设置位置、旋转和颜色
-        for (let i = 0; i < instanceCount; i++) {
-            const mapData = group[i];
+    // 旋转使平面与地面平行，所有实例共用同一旋转，只有平移部分不同
+    const rotation = new THREE.Matrix4().makeRotationX(-Math.PI / 2).elements;
 
-            // 计算变换矩阵（先旋转再定位）
-            matrix.makeRotationX(-Math.PI / 2); // 旋转使平面与地面平行
-            matrix.setPosition(mapData.x, floorYPosition + renderOrder * renderOrder * 0.001, mapData.z); // 设置位置
+    // 2. 为每个组创建InstancedMesh，直接填充实例矩阵和颜色缓冲区
+    groups.forEach(group => {
+        const size = group.size;
+        const renderOrder = group.renderOrder;
+        const y = floorYPosition + renderOrder * renderOrder * 0.001;
 
-            // 应用矩阵到实例
-            instancedMesh.setMatrixAt(i, matrix);
+        const geometry = new THREE.PlaneGeometry(size, size);
+        const instancedMesh = new THREE.InstancedMesh(geometry, mapDataMaterial, group.count);
+        instancedMesh.renderOrder = renderOrder; // 设置渲染顺序
 
-            // 设置实例颜色
-            color.set(mapData.color);
-            instancedMesh.setColorAt(i, color);
-        }
+        const matrices = instancedMesh.instanceMatrix.array;
+        const colors = new Float32Array(group.count * 3);
+        let i = 0;
+        group.blocks.forEach(block => {
+            for (let j = 0; j < block.x.length; j++, i++) {
+                const m = i * 16;
+                matrices.set(rotation, m);
+                matrices[m + 12] = block.x[j];
+                matrices[m + 13] = y;
+                matrices[m + 14] = block.z[j];
+
+                const rgb = block.rgb[j];
+                colors[i * 3] = ((rgb >> 16) & 0xFF) / 255;
+                colors[i * 3 + 1] = ((rgb >> 8) & 0xFF) / 255;
+                colors[i * 3 + 2] = (rgb & 0xFF) / 255;
+            }
+        });
 
-        // 5. 通知Three.js实例数据已更新
+        // 3. 通知Three.js实例数据已更新
+        instancedMesh.instanceColor = new THREE.InstancedBufferAttribute(colors, 3);
         instancedMesh.instanceMatrix.needsUpdate = true;
-        instancedMesh.instanceColor.needsUpdate = true;
 
         // 添加到场景
         scene.add(instancedMesh);
+        meshes.push(instancedMesh);
+    });
+    return meshes;
+}
+
+function removeMapDataMeshes(meshes) {
+    meshes.forEach(mesh => {
+        scene.remove(mesh);
+        mesh.geometry.dispose();
     });
 }
 
@@ -1,5 +1,4 @@
 const gameTimer = document.getElementById('game-timer');
-let timeCheckInterval;
 let isTimeExpired = false;
 let renderScene = true;
 
@@ -14,58 +13,120 @@ function handleLoginError() {
     logoutForm.submit();
 }
 
-// 初始化时间检查
+// 计时通道：服务器只在连接、暂停、继续、到期时推送状态，倒计时在本地计算
+let timeSocket = null;
+let countdownInterval = null;
+let timeState = null;
+let reconnectDelay = 1000;
+
+// 初始化时间检查（重复调用时复用已有连接）
 function initTimeCheck() {
     if (isTimeExpired) return;
-    // 清除可能存在的旧定时器（避免重复创建）
-    if (timeCheckInterval) {
-        clearInterval(timeCheckInterval);
+    if (timeSocket && (timeSocket.readyState === WebSocket.CONNECTING || timeSocket.readyState === WebSocket.OPEN)) {
+        return;
+    }
+    connectTimeSocket();
+}
+
+function connectTimeSocket() {
+    const protocol = window.location.protocol === 'https:' ? 'wss://' : 'ws://';
+    let opened = false;
+    timeSocket = new WebSocket(protocol + window.location.host + '/ws/game?token=' + encodeURIComponent(token));
+
+    timeSocket.onopen = () => {
+        opened = true;
+        reconnectDelay = 1000;
+    };
+
+    timeSocket.onmessage = (event) => {
+        handleTimeEvent(JSON.parse(event.data));
+    };
+
+    timeSocket.onclose = () => {
+        timeSocket = null;
+        if (isTimeExpired) return;
+        // 握手失败时通过HTTP查询一次，token无效会走登录异常处理
+        if (!opened) {
+            checkTimeOnce();
+        }
+        // 断线重连，间隔逐步加大
+        setTimeout(initTimeCheck, reconnectDelay);
+        reconnectDelay = Math.min(reconnectDelay * 2, 30000);
+    };
+}
+
+// 处理服务器推送的计时事件
+function handleTimeEvent(data) {
+    if (data.expired || data.type === 'TIME_EXPIRE') {
+        expireTimer();
+        return;
+    }
+    // 截止时间换算到本地时钟，不受客户端与服务器时钟偏差影响
+    timeState = {
+        paused: data.paused,
+        remainingMillis: data.remainingMillis,
+        deadline: performance.now() + data.remainingMillis
+    };
+    renderCountdown();
+    if (!countdownInterval) {
+        countdownInterval = setInterval(renderCountdown, 250);
+    }
+}
+
+// 本地倒计时显示；到期以服务器事件为准，本地只停在00:00
+function renderCountdown() {
+    if (!timeState) return;
+    const remaining = timeState.paused
+        ? timeState.remainingMillis
+        : Math.max(0, timeState.deadline - performance.now());
+    const seconds = Math.ceil(remaining / 1000);
+    const minutes = String(Math.floor(seconds / 60)).padStart(2, '0');
+    const secs = String(seconds % 60).padStart(2, '0');
+    gameTimer.textContent = minutes + ':' + secs;
+}
+
+function expireTimer() {
+    if (isTimeExpired) return;
+    isTimeExpired = true;
+    if (countdownInterval) {
+        clearInterval(countdownInterval);
+        countdownInterval = null;
+    }
+    gameTimer.textContent = '00:00';
+    if (timeSocket) {
+        timeSocket.close();
     }
-    // handleTimeExpired();
-    // 每秒检查一次时间
-    timeCheckInterval = setInterval(() => {
-        // 强制清除定时器，确保不再发送请求
-        if (isTimeExpired) {
-            clearInterval(timeCheckInterval);
-            timeCheckInterval = null; // 清空定时器引用
+    handleTimeExpired();
+}
+
+// WebSocket不可用时的HTTP查询
+function checkTimeOnce() {
+    fetch('/api/game/time', {
+        method: 'GET',
+        headers: {
+            'Authorization': 'Bearer ' + token
         }
-        fetch('/api/game/time', {
-            method: 'GET',
-            headers: {
-                'Authorization': 'Bearer ' + token
+    })
+        .then(response => {
+            // 检查HTTP响应状态
+            if (!response.ok) {
+                throw new Error('请求失败: ' + response.status);
             }
+            return response.json();
         })
-            .then(response => {
-                // 检查HTTP响应状态
-                if (!response.ok) {
-                    throw new Error('请求失败: ' + response.status);
+        .then(data => {
+            if (data.remainingTime) {
+                gameTimer.textContent = data.remainingTime;
+                if (data.remainingTime === '00:00') {
+                    expireTimer();
                 }
-                return response.json();
-            })
-            .then(data => {
-                if (data.remainingTime) {
-                    gameTimer.textContent = data.remainingTime;
-
-                    // 检查时间是否为00:00
-                    if (data.remainingTime === '00:00') {
-                        // 强制清除定时器，确保不再发送请求
-                        if (timeCheckInterval) {
-                            clearInterval(timeCheckInterval);
-                            timeCheckInterval = null; // 清空定时器引用
-                        }
-                        handleTimeExpired();
-                        isTimeExpired = true;
-                    }
-                }
-            })
-            .catch(error => {
-                console.error('获取时间失败:', error);
-                // 调用登录状态异常处理函数
-                handleLoginError();
-                // 清除定时器避免重复错误
-                clearInterval(timeCheckInterval);
-            });
-    }, 1000);
+            }
+        })
+        .catch(error => {
+            console.error('获取时间失败:', error);
+            // 调用登录状态异常处理函数
+            handleLoginError();
+        });
 }
 
 // 处理时间结束逻辑
@@ -128,11 +189,6 @@ function handleTimeExpired() {
             minimapContainer.style.width = `${currentSize}px`;
             minimapContainer.style.height = `${currentSize}px`;
 
-            // 更新小地图渲染器
-            if (minimapRenderer) {
-                minimapRenderer.setSize(currentSize, currentSize);
-            }
-
             // 继续动画直到完成
             if (progress < 1) {
                 requestAnimationFrame(animateMap);
@@ -347,10 +403,6 @@ function createGameEndBox() {
             border: 'none',
             objectFit: 'contain'
         });
-        if (minimapRenderer) {
-            const containerSize = mapWrapper.offsetWidth || 400;
-            minimapRenderer.setSize(containerSize, containerSize);
-        }
         mapWrapper.appendChild(minimapContainer);
     }
 
@@ -0,0 +1,119 @@
+package org.example.controller;
+
+import org.example.config.SqlDiagnosticsConfig;
+import org.example.config.StatementBudget;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import java.lang.reflect.Method;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 开启SQL诊断，按正常游戏流程调用接口，检查响应头X-SQL-Statements不超过接口上@StatementBudget声明的预算
+ * 使用jpa轨迹存储：保存位置时写入地图数据，是语句最多的情况
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:statementBudget;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+        "game.trail.store=jpa",
+        "game.diagnostics.sql.enabled=true"
+})
+class StatementBudgetTest {
+
+    private static final String USERNAME = "budget";
+    private static final String PASSWORD = "budget";
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    private String sessionCookie;
+    private String token;
+
+    @BeforeEach
+    void login() {
+        postForm("/register");
+        ResponseEntity<String> response = postForm("/login");
+        token = response.getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+        assertNotNull(token, "登录未返回token");
+        for (String cookie : response.getHeaders().get(HttpHeaders.SET_COOKIE)) {
+            if (cookie.startsWith("JSESSIONID=")) {
+                sessionCookie = cookie.substring(0, cookie.indexOf(';'));
+            }
+        }
+        assertNotNull(sessionCookie, "登录未创建会话");
+    }
+
+    @Test
+    void gameFlowStaysWithinBudgets() {
+        // 预算不含token首次验证时查询用户的一条语句（之后由VerifiedTokenCache命中），先预热
+        exchange(HttpMethod.GET, "/api/game/time", null);
+
+        assertWithinBudget(exchange(HttpMethod.POST, "/api/game/reset?gameMinutes=1", null), "resetGameData");
+
+        // 首次保存还要加载占用栅格，之后每次只写入一条地图数据
+        for (int i = 0; i < 5; i++) {
+            assertWithinBudget(exchange(HttpMethod.POST, "/api/cube/save", cube(i)), "saveCube");
+        }
+
+        // 首次加载（缓存未命中）和再次加载
+        assertWithinBudget(exchange(HttpMethod.GET, "/game/mainGame", null), "mainGame");
+        assertWithinBudget(exchange(HttpMethod.GET, "/game/mainGame", null), "mainGame");
+    }
+
+    private void assertWithinBudget(ResponseEntity<String> response, String handler) {
+        assertEquals(200, response.getStatusCodeValue(), handler + " 返回 " + response.getStatusCodeValue());
+        String header = response.getHeaders().getFirst(SqlDiagnosticsConfig.STATEMENTS_HEADER);
+        assertNotNull(header, handler + " 未返回 " + SqlDiagnosticsConfig.STATEMENTS_HEADER);
+        int budget = budgetOf(handler);
+        int statements = Integer.parseInt(header);
+        assertTrue(statements <= budget, handler + " 执行了 " + statements + " 条SQL，预算 " + budget);
+    }
+
+    // 预算从接口注解读取，修改预算时测试不需要同步修改
+    private static int budgetOf(String handler) {
+        for (Method method : GameController.class.getMethods()) {
+            StatementBudget budget = method.getAnnotation(StatementBudget.class);
+            if (method.getName().equals(handler) && budget != null) {
+                return budget.value();
+            }
+        }
+        throw new IllegalArgumentException("接口未声明@StatementBudget: " + handler);
+    }
+
+    private ResponseEntity<String> exchange(HttpMethod method, String path, String json) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.AUTHORIZATION, token);
+        headers.set(HttpHeaders.COOKIE, sessionCookie);
+        if (json != null) {
+            headers.setContentType(MediaType.APPLICATION_JSON);
+        }
+        return rest.exchange(path, method, new HttpEntity<>(json, headers), String.class);
+    }
+
+    private ResponseEntity<String> postForm(String path) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+        MultiValueMap<String, String> form = new LinkedMultiValueMap<>();
+        form.add("username", USERNAME);
+        form.add("password", PASSWORD);
+        return rest.postForEntity(path, new HttpEntity<>(form, headers), String.class);
+    }
+
+    private static String cube(int i) {
+        return "{\"position\":{\"x\":" + (i * 12) + ",\"y\":5,\"z\":" + (i * 12) + "},"
+                + "\"cameraPosition\":{\"x\":0,\"y\":35,\"z\":50},"
+                + "\"color\":\"#FF0000\",\"size\":10,\"renderOrder\":0}";
+    }
+}